@@ -420,11 +420,12 @@ function VideosPage({ onRefreshStats }) {
 
   // SSE: auto-refresh when video_added/removed
   useEffect(() => {
-    const es = api.createEventSource('/api/events', {
+    const es = api.createEventSource('/api/events?topics=video_*,stream_*', {
       video_added:   () => load(),
       video_removed: () => load(),
       stream_started:() => { load(); onRefreshStats?.() },
       stream_stopped:() => { load(); onRefreshStats?.() },
+      resync:        () => { load(); onRefreshStats?.() },
     })
     return () => es.close()
   }, [load, onRefreshStats])
@@ -763,9 +764,10 @@ function MonitoringPage() {
 
   // SSE real-time updates
   useEffect(() => {
-    const es = api.createEventSource('/api/events', {
+    const es = api.createEventSource('/api/events?topics=stream_*', {
       stream_started: () => load(),
       stream_stopped: () => load(),
+      resync:         () => load(),
     })
     return () => es.close()
   }, [load])
@@ -138,7 +138,7 @@ export default function PaymentsPage() {
 
   // SSE: refresh when payment approved
   useEffect(() => {
-    const es = api.createEventSource('/api/events', { payment_approved: () => load() })
+    const es = api.createEventSource('/api/events?topics=payment_*', { payment_approved: () => load(), resync: () => load() })
     return () => es.close()
   }, [load])
 
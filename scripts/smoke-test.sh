@@ -10,7 +10,21 @@ echo "[smoke] GET /api/health"
 curl -fsS "$BASE_URL/api/health" > /tmp/vs-health.json
 
 echo "[smoke] GET /api/videos"
-curl -fsS "$BASE_URL/api/videos" > /tmp/vs-videos.json
+curl -fsS -D /tmp/vs-videos.headers "$BASE_URL/api/videos" > /tmp/vs-videos.json
+
+echo "[smoke] GET /api/videos (If-None-Match -> 304)"
+ETAG="$(grep -i '^etag:' /tmp/vs-videos.headers | cut -d' ' -f2- | tr -d '\r')"
+[ -n "$ETAG" ] || { echo "[smoke] FAIL - pas d'ETag sur /api/videos"; exit 1; }
+STATUS="$(curl -sS -o /dev/null -w '%{http_code}' -H "If-None-Match: $ETAG" "$BASE_URL/api/videos")"
+[ "$STATUS" = "304" ] || { echo "[smoke] FAIL - attendu 304, reçu $STATUS"; exit 1; }
+
+echo "[smoke] GET /api/videos (Accept-Encoding: gzip)"
+curl -fsS -D /tmp/vs-videos-gz.headers -H "Accept-Encoding: gzip" "$BASE_URL/api/videos" > /tmp/vs-videos.json.gz
+grep -qi '^content-encoding: gzip' /tmp/vs-videos-gz.headers || { echo "[smoke] FAIL - réponse non compressée"; exit 1; }
+gzip -dc /tmp/vs-videos.json.gz | cmp -s - /tmp/vs-videos.json || { echo "[smoke] FAIL - variante gzip différente"; exit 1; }
+
+echo "[smoke] GET /api/videos/suggest?q="
+curl -fsS "$BASE_URL/api/videos/suggest?q=a" > /tmp/vs-suggest.json
 
 echo "[smoke] GET /api/videos/highlights"
 curl -fsS "$BASE_URL/api/videos/highlights" > /tmp/vs-highlights.json
@@ -18,8 +32,13 @@ curl -fsS "$BASE_URL/api/videos/highlights" > /tmp/vs-highlights.json
 echo "[smoke] GET /api/admin/stats"
 curl -fsS -H "Authorization: Bearer $ADMIN_SECRET" "$BASE_URL/api/admin/stats" > /tmp/vs-admin-stats.json
 
+echo "[smoke] GET /api/admin/stats/export"
+TODAY="$(date +%F)"
+curl -fsS -H "Authorization: Bearer $ADMIN_SECRET" \
+  "$BASE_URL/api/admin/stats/export?from=$TODAY&to=$TODAY" > /tmp/vs-admin-export.csv
+
 echo "[smoke] GET /api/admin/settings"
 curl -fsS -H "Authorization: Bearer $ADMIN_SECRET" "$BASE_URL/api/admin/settings" > /tmp/vs-admin-settings.json
 
-echo "[smoke] OK - outputs in /tmp/vs-*.json"
+echo "[smoke] OK - outputs in /tmp/vs-*"
 
@@ -292,7 +292,7 @@ public class ClientGui extends JFrame {
                     List<VideoInfo> videos = get();
                     tableModel.setRowCount(0);
                     for (VideoInfo video : videos) {
-                        String url = "http://" + video.getHost() + ":" + video.getPort();
+                        String url = video.getStreamUrl();
                         tableModel.addRow(new Object[]{
                             video.getTitle(),
                             video.getHost(),
@@ -25,11 +25,55 @@ public final class AppConfig {
         props.setProperty("db.url", "jdbc:h2:./data/videostreaming;AUTO_SERVER=TRUE;DB_CLOSE_DELAY=-1");
         props.setProperty("db.user", "sa");
         props.setProperty("db.password", "");
+        props.setProperty("db.pool.min", "2");
+        props.setProperty("db.pool.max", "16");
+        props.setProperty("db.pool.idle.timeout.ms", "300000");
+        props.setProperty("db.pool.acquire.timeout.ms", "5000");
+        props.setProperty("db.pool.leak.threshold.ms", "30000");
+        props.setProperty("db.pool.validation.query", "SELECT 1");
+        props.setProperty("db.pool.statement.cache.size", "64");
         props.setProperty("h2.console.enabled", "true");
         props.setProperty("h2.console.port", "18082");
         props.setProperty("log.level", "INFO");
         props.setProperty("streaming.max.connections.per.ip", "5");
         props.setProperty("streaming.max.concurrent.clients", "150");
+        props.setProperty("streaming.engine", "blocking");
+        props.setProperty("streaming.nio.threads", "2");
+        props.setProperty("streaming.zero.copy", "true");
+        props.setProperty("streaming.keepalive.timeout.ms", "15000");
+        props.setProperty("streaming.keepalive.max.requests", "100");
+        props.setProperty("streaming.max.header.bytes", "8192");
+        props.setProperty("http.executor", "platform");
+        props.setProperty("http.max.inflight", "2000");
+        props.setProperty("segment.cache.enabled", "true");
+        props.setProperty("segment.cache.max.mb", "128");
+        props.setProperty("segment.cache.block.kb", "1024");
+        props.setProperty("shaping.enabled", "true");
+        props.setProperty("shaping.global.kbps", "0");
+        props.setProperty("shaping.title.kbps", "0");
+        props.setProperty("shaping.ip.kbps", "0");
+        props.setProperty("shaping.pace.factor", "2.0");
+        props.setProperty("shaping.burst.seconds", "10");
+        props.setProperty("views.writer.queue.capacity", "10000");
+        props.setProperty("views.writer.batch.size", "500");
+        props.setProperty("views.writer.flush.ms", "1000");
+        props.setProperty("views.writer.offer.timeout.ms", "0");
+        props.setProperty("counters.flush.ms", "5000");
+        props.setProperty("catalog.cache.max.entries", "1000");
+        props.setProperty("catalog.cache.ttl.ms", "30000");
+        props.setProperty("search.index.enabled", "true");
+        props.setProperty("search.index.refresh.ms", "300000");
+        props.setProperty("search.popularity.weight", "0.1");
+        props.setProperty("views.retention.days", "90");
+        props.setProperty("views.archive.dir", "./data/archive");
+        props.setProperty("views.archive.interval.ms", "3600000");
+        props.setProperty("sse.client.queue.capacity", "256");
+        props.setProperty("sse.slow.policy", "drop-oldest");
+        props.setProperty("sse.replay.size", "1000");
+        props.setProperty("sse.coalesce.ms", "50");
+        props.setProperty("sse.max.clients", "1000");
+        props.setProperty("sse.heartbeat.ms", "20000");
+        props.setProperty("sse.writer.threads", "16");
         props.setProperty("videos.directory", "./videos");
         props.setProperty("plan.monthly.price", "9.99");
         props.setProperty("plan.monthly.days", "30");
@@ -62,11 +106,55 @@ public final class AppConfig {
         applyEnv("DB_URL", "db.url");
         applyEnv("DB_USER", "db.user");
         applyEnv("DB_PASSWORD", "db.password");
+        applyEnv("DB_POOL_MIN", "db.pool.min");
+        applyEnv("DB_POOL_MAX", "db.pool.max");
+        applyEnv("DB_POOL_IDLE_TIMEOUT_MS", "db.pool.idle.timeout.ms");
+        applyEnv("DB_POOL_ACQUIRE_TIMEOUT_MS", "db.pool.acquire.timeout.ms");
+        applyEnv("DB_POOL_LEAK_THRESHOLD_MS", "db.pool.leak.threshold.ms");
+        applyEnv("DB_POOL_VALIDATION_QUERY", "db.pool.validation.query");
+        applyEnv("DB_POOL_STATEMENT_CACHE_SIZE", "db.pool.statement.cache.size");
         applyEnv("H2_CONSOLE_ENABLED", "h2.console.enabled");
         applyEnv("H2_CONSOLE_PORT", "h2.console.port");
         applyEnv("LOG_LEVEL", "log.level");
         applyEnv("STREAMING_MAX_CONNECTIONS_PER_IP", "streaming.max.connections.per.ip");
         applyEnv("STREAMING_MAX_CONCURRENT_CLIENTS", "streaming.max.concurrent.clients");
+        applyEnv("STREAMING_ENGINE", "streaming.engine");
+        applyEnv("STREAMING_NIO_THREADS", "streaming.nio.threads");
+        applyEnv("STREAMING_ZERO_COPY", "streaming.zero.copy");
+        applyEnv("STREAMING_KEEPALIVE_TIMEOUT_MS", "streaming.keepalive.timeout.ms");
+        applyEnv("STREAMING_KEEPALIVE_MAX_REQUESTS", "streaming.keepalive.max.requests");
+        applyEnv("STREAMING_MAX_HEADER_BYTES", "streaming.max.header.bytes");
+        applyEnv("HTTP_EXECUTOR", "http.executor");
+        applyEnv("HTTP_MAX_INFLIGHT", "http.max.inflight");
+        applyEnv("SEGMENT_CACHE_ENABLED", "segment.cache.enabled");
+        applyEnv("SEGMENT_CACHE_MAX_MB", "segment.cache.max.mb");
+        applyEnv("SEGMENT_CACHE_BLOCK_KB", "segment.cache.block.kb");
+        applyEnv("SHAPING_ENABLED", "shaping.enabled");
+        applyEnv("SHAPING_GLOBAL_KBPS", "shaping.global.kbps");
+        applyEnv("SHAPING_TITLE_KBPS", "shaping.title.kbps");
+        applyEnv("SHAPING_IP_KBPS", "shaping.ip.kbps");
+        applyEnv("SHAPING_PACE_FACTOR", "shaping.pace.factor");
+        applyEnv("SHAPING_BURST_SECONDS", "shaping.burst.seconds");
+        applyEnv("VIEWS_WRITER_QUEUE_CAPACITY", "views.writer.queue.capacity");
+        applyEnv("VIEWS_WRITER_BATCH_SIZE", "views.writer.batch.size");
+        applyEnv("VIEWS_WRITER_FLUSH_MS", "views.writer.flush.ms");
+        applyEnv("VIEWS_WRITER_OFFER_TIMEOUT_MS", "views.writer.offer.timeout.ms");
+        applyEnv("COUNTERS_FLUSH_MS", "counters.flush.ms");
+        applyEnv("CATALOG_CACHE_MAX_ENTRIES", "catalog.cache.max.entries");
+        applyEnv("CATALOG_CACHE_TTL_MS", "catalog.cache.ttl.ms");
+        applyEnv("SEARCH_INDEX_ENABLED", "search.index.enabled");
+        applyEnv("SEARCH_INDEX_REFRESH_MS", "search.index.refresh.ms");
+        applyEnv("SEARCH_POPULARITY_WEIGHT", "search.popularity.weight");
+        applyEnv("VIEWS_RETENTION_DAYS", "views.retention.days");
+        applyEnv("VIEWS_ARCHIVE_DIR", "views.archive.dir");
+        applyEnv("VIEWS_ARCHIVE_INTERVAL_MS", "views.archive.interval.ms");
+        applyEnv("SSE_CLIENT_QUEUE_CAPACITY", "sse.client.queue.capacity");
+        applyEnv("SSE_SLOW_POLICY", "sse.slow.policy");
+        applyEnv("SSE_REPLAY_SIZE", "sse.replay.size");
+        applyEnv("SSE_COALESCE_MS", "sse.coalesce.ms");
+        applyEnv("SSE_MAX_CLIENTS", "sse.max.clients");
+        applyEnv("SSE_HEARTBEAT_MS", "sse.heartbeat.ms");
+        applyEnv("SSE_WRITER_THREADS", "sse.writer.threads");
         applyEnv("VIDEOS_DIRECTORY", "videos.directory");
         applyEnv("PLAN_MONTHLY_PRICE", "plan.monthly.price");
         applyEnv("PLAN_MONTHLY_DAYS", "plan.monthly.days");
@@ -124,10 +212,78 @@ public final class AppConfig {
     public String getDbUrl()         { return getString("db.url"); }
     public String getDbUser()        { return getString("db.user"); }
     public String getDbPassword()    { return getString("db.password"); }
+    public int    getDbPoolMin()              { return Math.max(0, getInt("db.pool.min")); }
+    public int    getDbPoolMax()              { return Math.max(1, getInt("db.pool.max")); }
+    public long   getDbPoolIdleTimeoutMs()    { return Math.max(1000, getInt("db.pool.idle.timeout.ms")); }
+    public long   getDbPoolAcquireTimeoutMs() { return Math.max(1, getInt("db.pool.acquire.timeout.ms")); }
+    /** Durée d'emprunt au-delà de laquelle une connexion est signalée comme fuite, 0 = désactivé. */
+    public long   getDbPoolLeakThresholdMs()  { return Math.max(0, getInt("db.pool.leak.threshold.ms")); }
+    public String getDbPoolValidationQuery()  {
+        String q = getString("db.pool.validation.query");
+        return q == null || q.isBlank() ? "SELECT 1" : q.trim();
+    }
+    /** PreparedStatement gardés par connexion du pool (LRU), 0 = pas de cache. */
+    public int    getDbPoolStatementCacheSize() { return Math.max(0, getInt("db.pool.statement.cache.size")); }
     public boolean isH2ConsoleEnabled() { return getBoolean("h2.console.enabled"); }
     public int    getH2ConsolePort() { return getInt("h2.console.port"); }
     public int    getMaxConnectionsPerIp() { return getInt("streaming.max.connections.per.ip"); }
     public int    getMaxConcurrentClients() { return getInt("streaming.max.concurrent.clients"); }
+    public String getStreamingEngine() {
+        String e = getString("streaming.engine");
+        return e == null ? "blocking" : e.trim().toLowerCase(java.util.Locale.ROOT);
+    }
+    public int    getStreamingNioThreads() { return Math.max(1, getInt("streaming.nio.threads")); }
+    public boolean isStreamingZeroCopy() { return getBoolean("streaming.zero.copy"); }
+    public int    getStreamingKeepAliveTimeoutMs()   { return Math.max(1000, getInt("streaming.keepalive.timeout.ms")); }
+    public int    getStreamingKeepAliveMaxRequests() { return Math.max(1, getInt("streaming.keepalive.max.requests")); }
+    public int    getStreamingMaxHeaderBytes() { return Math.max(1024, Math.min(65_536, getInt("streaming.max.header.bytes"))); }
+    public String getHttpExecutor() {
+        String e = getString("http.executor");
+        return e == null ? "platform" : e.trim().toLowerCase(java.util.Locale.ROOT);
+    }
+    public int    getHttpMaxInFlight() { return Math.max(1, getInt("http.max.inflight")); }
+    public boolean isSegmentCacheEnabled() { return getBoolean("segment.cache.enabled"); }
+    public int    getSegmentCacheMaxMb()   { return Math.max(1, getInt("segment.cache.max.mb")); }
+    public int    getSegmentCacheBlockKb() { return Math.max(64, Math.min(65_536, getInt("segment.cache.block.kb"))); }
+    public boolean isShapingEnabled()    { return getBoolean("shaping.enabled"); }
+    public int    getShapingGlobalKbps() { return Math.max(0, getInt("shaping.global.kbps")); }
+    public int    getShapingTitleKbps()  { return Math.max(0, getInt("shaping.title.kbps")); }
+    public int    getShapingIpKbps()     { return Math.max(0, getInt("shaping.ip.kbps")); }
+    public double getShapingPaceFactor() { return Math.max(0, getDouble("shaping.pace.factor", 2.0)); }
+    public int    getShapingBurstSeconds() { return Math.max(0, getInt("shaping.burst.seconds")); }
+    /** Débit max d'une connexion pour un forfait (shaping.plan.{forfait}.kbps), 0 = illimité. */
+    public int    getShapingPlanKbps(String plan) { return Math.max(0, getInt("shaping.plan." + plan + ".kbps")); }
+    public int    getViewsWriterQueueCapacity() { return Math.max(100, getInt("views.writer.queue.capacity")); }
+    public int    getViewsWriterBatchSize()     { return Math.max(1, getInt("views.writer.batch.size")); }
+    public int    getViewsWriterFlushMs()       { return Math.max(10, getInt("views.writer.flush.ms")); }
+    public int    getViewsWriterOfferTimeoutMs() { return Math.max(0, getInt("views.writer.offer.timeout.ms")); }
+    public int    getCountersFlushMs()          { return Math.max(100, getInt("counters.flush.ms")); }
+    public int    getCatalogCacheMaxEntries()   { return Math.max(0, getInt("catalog.cache.max.entries")); }
+    public int    getCatalogCacheTtlMs()        { return Math.max(0, getInt("catalog.cache.ttl.ms")); }
+    public boolean isSearchIndexEnabled()       { return getBoolean("search.index.enabled"); }
+    public int    getSearchIndexRefreshMs()     { return Math.max(10_000, getInt("search.index.refresh.ms")); }
+    /** Poids de log(1 + vues) dans le classement de la recherche, 0 = pertinence seule. */
+    public double getSearchPopularityWeight()   { return Math.max(0, getDouble("search.popularity.weight", 0.1)); }
+    /** Jours de view_events gardés en base, 0 = pas d'archivage. */
+    public int    getViewsRetentionDays()       { return Math.max(0, getInt("views.retention.days")); }
+    public String getViewsArchiveDir()          { return getString("views.archive.dir"); }
+    public int    getViewsArchiveIntervalMs()   { return Math.max(60_000, getInt("views.archive.interval.ms")); }
+    public int    getSseClientQueueCapacity()   { return Math.max(8, getInt("sse.client.queue.capacity")); }
+    /** Client SSE dont la file est pleine : "drop-oldest" (défaut) ou "disconnect". */
+    public String getSseSlowPolicy() {
+        String p = getString("sse.slow.policy");
+        return p == null ? "drop-oldest" : p.trim().toLowerCase(java.util.Locale.ROOT);
+    }
+    /** Événements SSE gardés pour le rejeu Last-Event-ID, 0 = pas d'id ni de rejeu. */
+    public int    getSseReplaySize()            { return Math.max(0, getInt("sse.replay.size")); }
+    /** Fenêtre de fusion des événements SSE par client (ms), 0 = écriture immédiate. */
+    public int    getSseCoalesceMs()            { return Math.max(0, Math.min(1000, getInt("sse.coalesce.ms"))); }
+    /** Connexions SSE simultanées (/api/events + /api/logs), au-delà : 503. */
+    public int    getSseMaxClients()            { return Math.max(1, getInt("sse.max.clients")); }
+    /** Intervalle du keepalive SSE, qui détecte aussi les clients partis (ms). */
+    public long   getSseHeartbeatMs()           { return Math.max(1000, getInt("sse.heartbeat.ms")); }
+    /** Threads d'écriture SSE partagés par tous les clients (un par client en cours d'écriture). */
+    public int    getSseWriterThreads()         { return Math.max(1, getInt("sse.writer.threads")); }
     public String getVideosDirectory() { return getString("videos.directory"); }
     public double getPlanMonthlyPrice() { return getDouble("plan.monthly.price", 9.99); }
     public int    getPlanMonthlyDays()  { return getInt("plan.monthly.days"); }
@@ -87,7 +87,11 @@ public final class CategoryRepository {
             ps.setString(2, color);
             ps.setString(3, icon);
             ps.setInt(4, id);
-            return ps.executeUpdate() > 0;
+            int rows = ps.executeUpdate();
+            // Nom et couleur sont recopiés dans les vidéos en cache
+            VideoCatalogCache.get().invalidateAll();
+            VideoSearchIndex.get().invalidateAll();
+            return rows > 0;
         } catch (SQLException e) {
             AppLogger.error(COMPONENT, "update error: " + e.getMessage());
             return false;
@@ -99,7 +103,10 @@ public final class CategoryRepository {
         String sql = "DELETE FROM categories WHERE id=?";
         try (Connection c = db.getConnection(); PreparedStatement ps = c.prepareStatement(sql)) {
             ps.setInt(1, id);
-            return ps.executeUpdate() > 0;
+            int rows = ps.executeUpdate();
+            VideoCatalogCache.get().invalidateAll();
+            VideoSearchIndex.get().invalidateAll();
+            return rows > 0;
         } catch (SQLException e) {
             AppLogger.error(COMPONENT, "delete error: " + e.getMessage());
             return false;
@@ -0,0 +1,322 @@
+package db;
+
+import common.AppLogger;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool de connexions JDBC (JDK seul) derrière DatabaseManager.getConnection().
+ *
+ * Les repositories reçoivent un proxy de Connection dont close() rend la connexion
+ * au pool (transaction annulée et autocommit rétabli si besoin). Au plus max
+ * connexions prêtées, attente bornée par acquireTimeoutMs puis SQLException.
+ * Une connexion restée inactive plus de VALIDATE_AFTER_IDLE_MS est vérifiée par la
+ * requête de validation avant d'être prêtée. Une tâche de fond ferme les connexions
+ * inactives au-delà de idleTimeoutMs (sans descendre sous min) et signale les
+ * connexions prêtées depuis plus de leakThresholdMs, avec la pile de l'emprunt.
+ * Chaque connexion physique garde ses PreparedStatement (StatementCache, LRU de
+ * statementCacheSize entrées, 0 = désactivé).
+ */
+final class ConnectionPool {
+
+    private static final String COMPONENT = "ConnectionPool";
+    private static final long VALIDATE_AFTER_IDLE_MS = 5_000;
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int min;
+    private final int max;
+    private final long idleTimeoutMs;
+    private final long acquireTimeoutMs;
+    private final long leakThresholdMs;
+    private final String validationQuery;
+    private final int statementCacheSize;
+    private final StatementCache.Stats statementStats = new StatementCache.Stats();
+
+    /** Connexions libres, la plus récemment rendue en tête (LIFO : les autres vieillissent et sont évincées). */
+    private final LinkedBlockingDeque<Physical> idle = new LinkedBlockingDeque<>();
+    private final Set<Lease> leased = ConcurrentHashMap.newKeySet();
+    private final Semaphore permits;
+    private final AtomicInteger total = new AtomicInteger();
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean closed;
+
+    private final AtomicLong acquired = new AtomicLong();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong leaks = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    ConnectionPool(String url, String user, String password, int min, int max, long idleTimeoutMs,
+                   long acquireTimeoutMs, long leakThresholdMs, String validationQuery, int statementCacheSize) {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.max = Math.max(1, max);
+        this.min = Math.max(0, Math.min(min, this.max));
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.acquireTimeoutMs = acquireTimeoutMs;
+        this.leakThresholdMs = leakThresholdMs;
+        this.validationQuery = validationQuery;
+        this.statementCacheSize = Math.max(0, statementCacheSize);
+        this.permits = new Semaphore(this.max, true);
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "db-pool-housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+        housekeeper.scheduleWithFixedDelay(this::housekeep, 1, 1, TimeUnit.SECONDS);
+        fillToMin();
+    }
+
+    Connection getConnection() throws SQLException {
+        if (closed) throw new SQLException("Pool de connexions fermé");
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(acquireTimeoutMs, TimeUnit.MILLISECONDS)) {
+                timeouts.incrementAndGet();
+                throw new SQLTransientConnectionException(
+                    "Aucune connexion libre après " + acquireTimeoutMs + " ms (max=" + max + ")");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Attente de connexion interrompue", e);
+        }
+        try {
+            Physical p = borrow();
+            long waited = System.nanoTime() - start;
+            waitNanos.addAndGet(waited);
+            maxWaitNanos.accumulateAndGet(waited, Math::max);
+            acquired.incrementAndGet();
+            Lease lease = new Lease(p, leakThresholdMs > 0 ? new Throwable("Emprunt de la connexion") : null);
+            leased.add(lease);
+            return (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(), new Class<?>[] {Connection.class}, lease);
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /** Connexion libre valide, ou nouvelle connexion (un permis est déjà pris). */
+    private Physical borrow() throws SQLException {
+        Physical p;
+        while ((p = idle.pollFirst()) != null) {
+            if (System.currentTimeMillis() - p.lastUsed < VALIDATE_AFTER_IDLE_MS || validate(p.connection)) {
+                return p;
+            }
+            discard(p);
+        }
+        return open();
+    }
+
+    private Physical open() throws SQLException {
+        Connection c = DriverManager.getConnection(url, user, password);
+        total.incrementAndGet();
+        created.incrementAndGet();
+        return new Physical(c, statementCacheSize > 0 ? new StatementCache(c, statementCacheSize, statementStats) : null);
+    }
+
+    private boolean validate(Connection c) {
+        try (Statement s = c.createStatement()) {
+            s.execute(validationQuery);
+            return true;
+        } catch (SQLException e) {
+            AppLogger.warn(COMPONENT, "Connexion invalide écartée: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private void release(Lease lease) {
+        leased.remove(lease);
+        Physical p = lease.physical;
+        try {
+            Connection c = p.connection;
+            if (p.statements != null) p.statements.releaseAll();
+            if (c.isClosed()) {
+                discard(p);
+            } else {
+                if (!c.getAutoCommit()) {
+                    c.rollback();
+                    c.setAutoCommit(true);
+                }
+                c.clearWarnings();
+                p.lastUsed = System.currentTimeMillis();
+                if (closed) discard(p); else idle.offerFirst(p);
+            }
+        } catch (SQLException e) {
+            discard(p);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void discard(Physical p) {
+        total.decrementAndGet();
+        try {
+            p.connection.close();
+        } catch (SQLException ignored) {}
+    }
+
+    private void housekeep() {
+        try {
+            // Éviction : les plus anciennes sont en queue
+            long now = System.currentTimeMillis();
+            Physical p;
+            while (total.get() > min && (p = idle.peekLast()) != null && now - p.lastUsed > idleTimeoutMs) {
+                if (idle.removeLastOccurrence(p)) {
+                    discard(p);
+                    evicted.incrementAndGet();
+                }
+            }
+            fillToMin();
+            if (leakThresholdMs > 0) {
+                for (Lease lease : leased) {
+                    if (!lease.reported && now - lease.borrowedAt > leakThresholdMs) {
+                        lease.reported = true;
+                        leaks.incrementAndGet();
+                        AppLogger.warn(COMPONENT, "Connexion non rendue depuis " + (now - lease.borrowedAt)
+                            + " ms, empruntée par: " + describe(lease.origin));
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            AppLogger.warn(COMPONENT, "Maintenance du pool: " + e.getMessage());
+        }
+    }
+
+    private void fillToMin() {
+        while (!closed && total.get() < min) {
+            try {
+                idle.offerLast(open());
+            } catch (SQLException e) {
+                AppLogger.warn(COMPONENT, "Ouverture de connexion impossible: " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    private static String describe(Throwable origin) {
+        if (origin == null) return "?";
+        StringBuilder sb = new StringBuilder();
+        for (StackTraceElement e : origin.getStackTrace()) {
+            if (e.getClassName().startsWith(ConnectionPool.class.getName())
+                || e.getClassName().startsWith("jdk.proxy") || e.getClassName().equals(DatabaseManager.class.getName())) {
+                continue;
+            }
+            if (!sb.isEmpty()) sb.append(" <- ");
+            sb.append(e.getClassName()).append('.').append(e.getMethodName()).append(':').append(e.getLineNumber());
+            if (sb.length() > 300) break;
+        }
+        return sb.toString();
+    }
+
+    /** Ferme les connexions libres ; celles encore prêtées sont fermées à leur retour. */
+    void close() {
+        closed = true;
+        housekeeper.shutdownNow();
+        Physical p;
+        while ((p = idle.pollFirst()) != null) discard(p);
+    }
+
+    int  getTotal()        { return total.get(); }
+    int  getIdle()         { return idle.size(); }
+    int  getActive()       { return leased.size(); }
+    int  getMax()          { return max; }
+    int  getWaiting()      { return permits.getQueueLength(); }
+    long getAcquired()     { return acquired.get(); }
+    long getCreated()      { return created.get(); }
+    long getEvicted()      { return evicted.get(); }
+    long getTimeouts()     { return timeouts.get(); }
+    long getLeaks()        { return leaks.get(); }
+    long getStatementHits()      { return statementStats.hits.get(); }
+    long getStatementMisses()    { return statementStats.misses.get(); }
+    long getStatementEvictions() { return statementStats.evictions.get(); }
+    long getMaxWaitMicros() { return TimeUnit.NANOSECONDS.toMicros(maxWaitNanos.get()); }
+    long getAvgWaitMicros() {
+        long n = acquired.get();
+        return n == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(waitNanos.get() / n);
+    }
+
+    private static final class Physical {
+        final Connection connection;
+        final StatementCache statements;
+        volatile long lastUsed = System.currentTimeMillis();
+
+        Physical(Connection connection, StatementCache statements) {
+            this.connection = connection;
+            this.statements = statements;
+        }
+    }
+
+    /** Connexion prêtée : délègue tout à la connexion physique, sauf close() qui la rend au pool. */
+    private final class Lease implements InvocationHandler {
+        final Physical physical;
+        final Throwable origin;
+        final long borrowedAt = System.currentTimeMillis();
+        final AtomicBoolean returned = new AtomicBoolean();
+        volatile boolean reported;
+
+        Lease(Physical physical, Throwable origin) {
+            this.physical = physical;
+            this.origin = origin;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (returned.compareAndSet(false, true)) release(this);
+                    return null;
+                case "isClosed":
+                    if (returned.get()) return true;
+                    break;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled" + physical.connection;
+                case "unwrap":
+                case "isWrapperFor":
+                    break;
+                case "prepareStatement":
+                    if (returned.get()) throw new SQLException("Connexion déjà rendue au pool");
+                    // prepareStatement(String) et prepareStatement(String, int autoGeneratedKeys)
+                    if (physical.statements != null && (args.length == 1
+                        || (args.length == 2 && method.getParameterTypes()[1] == int.class))) {
+                        return physical.statements.prepare((Connection) proxy, (String) args[0],
+                            args.length == 1 ? -1 : (Integer) args[1]);
+                    }
+                    break;
+                default:
+                    if (returned.get()) throw new SQLException("Connexion déjà rendue au pool");
+            }
+            try {
+                return method.invoke(physical.connection, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
@@ -7,6 +7,11 @@ import java.sql.*;
 /**
  * Gestionnaire de connexion H2 embedded.
  * Initialise le schéma au premier démarrage et gère les migrations.
+ * Les connexions viennent d'un pool (db.pool.*) : close() les rend au pool.
+ *
+ * Un seul hook d'arrêt, dans l'ordre : vidage de ViewEventWriter, écriture des deltas
+ * de VideoCounters, puis SHUTDOWN. Le hook de fermeture de H2, qui tournerait en
+ * parallèle et ferait échouer ces écritures, est retiré (voir takeOverH2ExitHook).
  */
 public final class DatabaseManager {
 
@@ -16,13 +21,30 @@ public final class DatabaseManager {
     private final String url;
     private final String user;
     private final String password;
+    private final ConnectionPool pool;
+
+    /** Instantané du pool pour /api/health (temps d'attente en microsecondes). */
+    public record PoolStats(int total, int active, int idle, int max, int waiting, long acquired, long created,
+                            long evicted, long timeouts, long leaks, long avgWaitMicros, long maxWaitMicros,
+                            long statementHits, long statementMisses, long statementEvictions) {
+
+        /** Part des prepareStatement servis par le cache, en pourcentage. */
+        public double statementHitRate() {
+            long n = statementHits + statementMisses;
+            return n == 0 ? 0 : Math.round(statementHits * 1000.0 / n) / 10.0;
+        }
+    }
 
     private DatabaseManager(String url, String user, String password) throws SQLException {
         this.url = url;
         this.user = user;
         this.password = password;
         initSchema();
-        AppLogger.info(COMPONENT, "H2 initialisé: " + url);
+        AppConfig cfg = AppConfig.get();
+        this.pool = new ConnectionPool(url, user, password, cfg.getDbPoolMin(), cfg.getDbPoolMax(),
+            cfg.getDbPoolIdleTimeoutMs(), cfg.getDbPoolAcquireTimeoutMs(), cfg.getDbPoolLeakThresholdMs(),
+            cfg.getDbPoolValidationQuery(), cfg.getDbPoolStatementCacheSize());
+        AppLogger.info(COMPONENT, "H2 initialisé: " + url + " (pool " + cfg.getDbPoolMin() + "-" + cfg.getDbPoolMax() + ")");
     }
 
     public static synchronized DatabaseManager getInstance() {
@@ -33,6 +55,8 @@ public final class DatabaseManager {
                 java.io.File dataDir = new java.io.File("data");
                 if (!dataDir.exists()) dataDir.mkdirs();
                 instance = new DatabaseManager(cfg.getDbUrl(), cfg.getDbUser(), cfg.getDbPassword());
+                takeOverH2ExitHook();
+                Runtime.getRuntime().addShutdownHook(new Thread(DatabaseManager::closeOnExit, "db-shutdown"));
             } catch (SQLException e) {
                 throw new RuntimeException("Impossible d'initialiser la base H2: " + e.getMessage(), e);
             }
@@ -41,7 +65,37 @@ public final class DatabaseManager {
     }
 
     public Connection getConnection() throws SQLException {
-        return DriverManager.getConnection(url, user, password);
+        return pool.getConnection();
+    }
+
+    public PoolStats poolStats() {
+        return new PoolStats(pool.getTotal(), pool.getActive(), pool.getIdle(), pool.getMax(), pool.getWaiting(),
+            pool.getAcquired(), pool.getCreated(), pool.getEvicted(), pool.getTimeouts(), pool.getLeaks(),
+            pool.getAvgWaitMicros(), pool.getMaxWaitMicros(),
+            pool.getStatementHits(), pool.getStatementMisses(), pool.getStatementEvictions());
+    }
+
+    /**
+     * H2 ferme ses bases depuis son propre hook (OnExitDatabaseCloser), sans ordre avec les
+     * autres hooks. DB_CLOSE_ON_EXIT=FALSE le désactiverait, mais H2 le refuse avec
+     * AUTO_SERVER=TRUE : on retire donc ce hook, enregistré à l'ouverture de la base, et
+     * closeOnExit() ferme la base après les dernières écritures.
+     */
+    private static void takeOverH2ExitHook() {
+        try {
+            java.lang.reflect.Field hook = Class.forName("org.h2.engine.OnExitDatabaseCloser").getDeclaredField("INSTANCE");
+            hook.setAccessible(true);
+            Runtime.getRuntime().removeShutdownHook((Thread) hook.get(null));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            AppLogger.warn(COMPONENT, "Hook d'arrêt H2 conservé, écritures de fin exposées: " + e.getMessage());
+        }
+    }
+
+    /** Hook d'arrêt : écritures en attente d'abord, fermeture de la base ensuite. */
+    private static void closeOnExit() {
+        ViewEventWriter.get().close();
+        VideoCounters.get().close();
+        shutdown();
     }
 
     public static void shutdown() {
@@ -51,6 +105,8 @@ public final class DatabaseManager {
                 AppLogger.info(COMPONENT, "H2 arrêtée proprement");
             } catch (Exception e) {
                 AppLogger.warn(COMPONENT, "Erreur shutdown H2: " + e.getMessage());
+            } finally {
+                instance.pool.close();
             }
         }
     }
@@ -206,15 +262,175 @@ public final class DatabaseManager {
             try { s.execute("ALTER TABLE videos ADD COLUMN download_count INTEGER DEFAULT 0"); }
             catch (SQLException ignored) {}
 
+            // VIEW ROLLUPS (v4) : agrégats par vidéo et par heure / jour, tenus par ViewEventWriter.
+            // view_viewers_* retiennent les IP hachées déjà comptées dans unique_viewers, pour
+            // les périodes encore ouvertes seulement (purgées ensuite par ViewEventWriter).
+            s.execute("""
+                CREATE TABLE IF NOT EXISTS view_stats_hourly (
+                    video_id       INTEGER   NOT NULL REFERENCES videos(id) ON DELETE CASCADE,
+                    hour_start     TIMESTAMP NOT NULL,
+                    views          BIGINT    DEFAULT 0,
+                    bytes_served   BIGINT    DEFAULT 0,
+                    unique_viewers INTEGER   DEFAULT 0,
+                    PRIMARY KEY (video_id, hour_start)
+                )
+            """);
+            s.execute("""
+                CREATE TABLE IF NOT EXISTS view_stats_daily (
+                    video_id       INTEGER NOT NULL REFERENCES videos(id) ON DELETE CASCADE,
+                    view_date      DATE    NOT NULL,
+                    views          BIGINT  DEFAULT 0,
+                    bytes_served   BIGINT  DEFAULT 0,
+                    unique_viewers INTEGER DEFAULT 0,
+                    PRIMARY KEY (video_id, view_date)
+                )
+            """);
+            s.execute("""
+                CREATE TABLE IF NOT EXISTS view_viewers_hourly (
+                    video_id       INTEGER     NOT NULL REFERENCES videos(id) ON DELETE CASCADE,
+                    hour_start     TIMESTAMP   NOT NULL,
+                    client_ip_hash VARCHAR(64) NOT NULL,
+                    PRIMARY KEY (video_id, hour_start, client_ip_hash)
+                )
+            """);
+            s.execute("""
+                CREATE TABLE IF NOT EXISTS view_viewers_daily (
+                    video_id       INTEGER     NOT NULL REFERENCES videos(id) ON DELETE CASCADE,
+                    view_date      DATE        NOT NULL,
+                    client_ip_hash VARCHAR(64) NOT NULL,
+                    PRIMARY KEY (video_id, view_date, client_ip_hash)
+                )
+            """);
+            s.execute("CREATE INDEX IF NOT EXISTS idx_view_stats_hourly_hour ON view_stats_hourly(hour_start)");
+            s.execute("CREATE INDEX IF NOT EXISTS idx_view_stats_daily_day ON view_stats_daily(view_date)");
+            if (!hasSchemaVersion(c, 4)) backfillRollups(c);
+
+            // SITE VIEWERS (v6) : spectateurs uniques par heure, toutes vidéos confondues
+            // (un spectateur de trois vidéos compte une fois), tenus par ViewEventWriter.
+            s.execute("""
+                CREATE TABLE IF NOT EXISTS view_site_hourly (
+                    hour_start     TIMESTAMP PRIMARY KEY,
+                    unique_viewers INTEGER   DEFAULT 0
+                )
+            """);
+            s.execute("""
+                CREATE TABLE IF NOT EXISTS view_site_viewers_hourly (
+                    hour_start     TIMESTAMP   NOT NULL,
+                    client_ip_hash VARCHAR(64) NOT NULL,
+                    PRIMARY KEY (hour_start, client_ip_hash)
+                )
+            """);
+            if (!hasSchemaVersion(c, 6)) backfillSiteViewers(c);
+
+            // VIEW_EVENTS (v5) : fenêtre glissante, archivage par jour (ViewArchiver)
+            s.execute("CREATE INDEX IF NOT EXISTS idx_view_events_viewed_at ON view_events(viewed_at)");
+            s.execute("CREATE INDEX IF NOT EXISTS idx_view_events_video_time ON view_events(video_id, viewed_at)");
+
             // Mark schema v2
             s.execute("MERGE INTO schema_version (version) KEY(version) VALUES (1)");
             s.execute("MERGE INTO schema_version (version) KEY(version) VALUES (2)");
             s.execute("MERGE INTO schema_version (version) KEY(version) VALUES (3)");
+            s.execute("MERGE INTO schema_version (version) KEY(version) VALUES (4)");
+            s.execute("MERGE INTO schema_version (version) KEY(version) VALUES (5)");
+            s.execute("MERGE INTO schema_version (version) KEY(version) VALUES (6)");
             seedDefaultPlans(c);
-            AppLogger.info(COMPONENT, "Schéma v3 OK (settings, plans, users, subscriptions, payments, download_tokens)");
+            AppLogger.info(COMPONENT, "Schéma v6 OK (settings, plans, users, subscriptions, payments, download_tokens, rollups, view_events indexés, spectateurs du site)");
         }
     }
 
+    private static boolean hasSchemaVersion(Connection c, int version) throws SQLException {
+        try (PreparedStatement ps = c.prepareStatement("SELECT 1 FROM schema_version WHERE version=?")) {
+            ps.setInt(1, version);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    /**
+     * Migration v4 : agrégats calculés une fois depuis l'historique de view_events
+     * (long sur une grosse table, mais une seule fois). Les spectateurs déjà comptés
+     * ne sont repris que pour les périodes encore ouvertes. Voir migrateData.
+     */
+    private void backfillRollups(Connection c) throws SQLException {
+        long start = System.currentTimeMillis();
+        int days = migrateData(c, 4, DatabaseManager::backfillRollups,
+            "view_viewers_hourly", "view_viewers_daily", "view_stats_hourly", "view_stats_daily");
+        AppLogger.info(COMPONENT, "Agrégats de vues initialisés: " + days + " jours-vidéo en "
+            + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /** Migration v6 : spectateurs uniques du site par heure, depuis view_events (comme v4). */
+    private void backfillSiteViewers(Connection c) throws SQLException {
+        long start = System.currentTimeMillis();
+        int hours = migrateData(c, 6, s -> {
+            s.execute("""
+                INSERT INTO view_site_viewers_hourly (hour_start, client_ip_hash)
+                SELECT DISTINCT DATE_TRUNC('HOUR', viewed_at), client_ip_hash
+                FROM view_events
+                WHERE client_ip_hash IS NOT NULL AND viewed_at >= DATEADD('HOUR', -2, DATE_TRUNC('HOUR', LOCALTIMESTAMP))
+            """);
+            return s.executeUpdate("""
+                INSERT INTO view_site_hourly (hour_start, unique_viewers)
+                SELECT DATE_TRUNC('HOUR', viewed_at), COUNT(DISTINCT client_ip_hash)
+                FROM view_events GROUP BY DATE_TRUNC('HOUR', viewed_at)
+            """);
+        }, "view_site_viewers_hourly", "view_site_hourly");
+        AppLogger.info(COMPONENT, "Spectateurs du site initialisés: " + hours + " heures en "
+            + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    private interface DataMigration {
+        int run(Statement s) throws SQLException;
+    }
+
+    /**
+     * Une seule transaction avec la marque de version, tables vidées d'abord : une migration
+     * interrompue (disque plein, arrêt brutal) est refaite entièrement au démarrage suivant.
+     */
+    private static int migrateData(Connection c, int version, DataMigration work, String... tables) throws SQLException {
+        c.setAutoCommit(false);
+        try (Statement s = c.createStatement()) {
+            for (String table : tables) s.execute("DELETE FROM " + table);
+            int rows = work.run(s);
+            s.execute("MERGE INTO schema_version (version) KEY(version) VALUES (" + version + ")");
+            c.commit();
+            return rows;
+        } catch (SQLException e) {
+            c.rollback();
+            throw e;
+        } finally {
+            c.setAutoCommit(true);
+        }
+    }
+
+    private static int backfillRollups(Statement s) throws SQLException {
+        s.execute("""
+            INSERT INTO view_viewers_hourly (video_id, hour_start, client_ip_hash)
+            SELECT DISTINCT video_id, DATE_TRUNC('HOUR', viewed_at), client_ip_hash
+            FROM view_events
+            WHERE client_ip_hash IS NOT NULL AND viewed_at >= DATEADD('HOUR', -2, DATE_TRUNC('HOUR', LOCALTIMESTAMP))
+        """);
+        s.execute("""
+            INSERT INTO view_viewers_daily (video_id, view_date, client_ip_hash)
+            SELECT DISTINCT video_id, CAST(viewed_at AS DATE), client_ip_hash
+            FROM view_events
+            WHERE client_ip_hash IS NOT NULL AND viewed_at >= DATEADD('DAY', -1, CURRENT_DATE)
+        """);
+        s.execute("""
+            INSERT INTO view_stats_hourly (video_id, hour_start, views, bytes_served, unique_viewers)
+            SELECT video_id, DATE_TRUNC('HOUR', viewed_at), COUNT(*), COALESCE(SUM(bytes_served), 0),
+                   COUNT(DISTINCT client_ip_hash)
+            FROM view_events GROUP BY video_id, DATE_TRUNC('HOUR', viewed_at)
+        """);
+        return s.executeUpdate("""
+            INSERT INTO view_stats_daily (video_id, view_date, views, bytes_served, unique_viewers)
+            SELECT video_id, CAST(viewed_at AS DATE), COUNT(*), COALESCE(SUM(bytes_served), 0),
+                   COUNT(DISTINCT client_ip_hash)
+            FROM view_events GROUP BY video_id, CAST(viewed_at AS DATE)
+        """);
+    }
+
     private void seedDefaultPlans(Connection c) throws SQLException {
         String countSql = "SELECT COUNT(*) FROM subscription_plans";
         try (Statement s = c.createStatement(); ResultSet rs = s.executeQuery(countSql)) {
@@ -0,0 +1,179 @@
+package db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache LRU de PreparedStatement d'une connexion physique du pool, par texte SQL
+ * (et option de clés générées). H2 n'a plus à analyser ni planifier la requête
+ * à chaque appel d'un repository.
+ *
+ * Le repository reçoit un proxy dont close() remet le statement dans le cache
+ * (paramètres effacés, ResultSet ouverts fermés) au lieu de le fermer. Un
+ * statement déjà emprunté par la même connexion est préparé hors cache. Une
+ * connexion n'est utilisée que par un thread à la fois : pas de verrou.
+ */
+final class StatementCache {
+
+    /** Compteurs partagés par tous les caches du pool. */
+    static final class Stats {
+        final AtomicLong hits = new AtomicLong();
+        final AtomicLong misses = new AtomicLong();
+        final AtomicLong evictions = new AtomicLong();
+    }
+
+    private final Connection connection;
+    private final int capacity;
+    private final Stats stats;
+    private final LinkedHashMap<String, Entry> entries;
+
+    StatementCache(Connection connection, int capacity, Stats stats) {
+        this.connection = connection;
+        this.capacity = capacity;
+        this.stats = stats;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Statement pour sql ; owner est la connexion prêtée (retournée par getConnection()).
+     * autoGeneratedKeys = -1 pour prepareStatement(String).
+     */
+    PreparedStatement prepare(Connection owner, String sql, int autoGeneratedKeys) throws SQLException {
+        String key = autoGeneratedKeys < 0 ? sql : autoGeneratedKeys + "\u0000" + sql;
+        Entry e = entries.get(key);
+        if (e != null && !e.inUse) {
+            stats.hits.incrementAndGet();
+            return e.checkout(owner);
+        }
+        stats.misses.incrementAndGet();
+        PreparedStatement ps = autoGeneratedKeys < 0
+            ? connection.prepareStatement(sql)
+            : connection.prepareStatement(sql, autoGeneratedKeys);
+        if (e != null) {
+            // Même requête déjà ouverte sur cette connexion : statement non mis en cache
+            return ps;
+        }
+        e = new Entry(ps);
+        entries.put(key, e);
+        evictOverflow();
+        return e.checkout(owner);
+    }
+
+    private void evictOverflow() {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (entries.size() > capacity && it.hasNext()) {
+            Entry oldest = it.next().getValue();
+            it.remove();
+            stats.evictions.incrementAndGet();
+            if (oldest.inUse) oldest.evicted = true; else closeQuietly(oldest.statement);
+        }
+    }
+
+    /** Retour de la connexion au pool : remet en cache les statements que l'appelant n'a pas fermés. */
+    void releaseAll() {
+        for (Entry e : entries.values()) {
+            if (e.inUse) e.checkin();
+        }
+    }
+
+    private static void closeQuietly(AutoCloseable c) {
+        try {
+            c.close();
+        } catch (Exception ignored) {}
+    }
+
+    /** Statement en cache et son proxy (créé une fois, réutilisé à chaque emprunt). */
+    private static final class Entry implements InvocationHandler {
+        final PreparedStatement statement;
+        final PreparedStatement proxy;
+        final List<ResultSet> results = new ArrayList<>(1);
+        Connection owner;
+        boolean inUse;
+        boolean evicted;
+        boolean batched;
+
+        Entry(PreparedStatement statement) {
+            this.statement = statement;
+            this.proxy = (PreparedStatement) Proxy.newProxyInstance(
+                PreparedStatement.class.getClassLoader(), new Class<?>[] {PreparedStatement.class}, this);
+        }
+
+        PreparedStatement checkout(Connection owner) {
+            this.owner = owner;
+            this.inUse = true;
+            return proxy;
+        }
+
+        void checkin() {
+            if (!inUse) return;
+            inUse = false;
+            owner = null;
+            for (ResultSet rs : results) closeQuietly(rs);
+            results.clear();
+            try {
+                statement.clearParameters();
+                if (batched) statement.clearBatch();
+                statement.clearWarnings();
+            } catch (SQLException e) {
+                evicted = true;
+            }
+            batched = false;
+            if (evicted) closeQuietly(statement);
+        }
+
+        private static boolean isClosed(ResultSet rs) {
+            try {
+                return rs.isClosed();
+            } catch (SQLException e) {
+                return true;
+            }
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    checkin();
+                    return null;
+                case "isClosed":
+                    return !inUse;
+                case "getConnection":
+                    return owner;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Cached" + statement;
+                default:
+                    if (!inUse) throw new SQLException("Statement déjà fermé");
+            }
+            Object result;
+            try {
+                result = method.invoke(statement, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+            if (result instanceof ResultSet rs) {
+                // Un statement réexécuté ferme son ResultSet précédent : ne garder que les ouverts
+                results.removeIf(Entry::isClosed);
+                results.add(rs);
+            } else if (method.getName().equals("addBatch")) {
+                batched = true;
+            }
+            return result;
+        }
+    }
+}
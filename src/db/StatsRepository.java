@@ -9,13 +9,15 @@ import java.util.Map;
 
 /**
  * DAO pour les statistiques de visionnage et le dashboard.
+ * Lit les agrégats view_stats_hourly / view_stats_daily / view_site_hourly (tenus par ViewEventWriter)
+ * plutôt que view_events, dont la taille n'est pas bornée.
  */
 public final class StatsRepository {
 
     private static final String COMPONENT = "StatsRepository";
     private final DatabaseManager db;
 
-    public record HourlyStats(int hour, int viewCount) {}
+    public record HourlyStats(int hour, int viewCount, int uniqueViewers) {}
     public record DashboardStats(int totalVideos, int activeStreams, long viewsToday,
                                   long totalViews, double totalBandwidthMb, List<VideoMetadata> topVideos) {}
 
@@ -23,26 +25,19 @@ public final class StatsRepository {
         this.db = DatabaseManager.getInstance();
     }
 
-    /** Enregistre un événement de visionnage */
-    public void recordView(int videoId, String clientIpHash, long bytesServed) {
-        String sql = "INSERT INTO view_events (video_id, client_ip_hash, bytes_served) VALUES (?,?,?)";
-        try (Connection c = db.getConnection(); PreparedStatement ps = c.prepareStatement(sql)) {
-            ps.setInt(1, videoId);
-            ps.setString(2, clientIpHash);
-            ps.setLong(3, bytesServed);
-            ps.executeUpdate();
-        } catch (SQLException e) {
-            AppLogger.warn(COMPONENT, "recordView error: " + e.getMessage());
-        }
-    }
-
-    /** Vues par heure des dernières 24h (24 entrées) */
+    /**
+     * Vues par heure des dernières 24h (24 entrées, heure en cours comprise). uniqueViewers
+     * compte chaque spectateur une fois par heure sur tout le site (view_site_hourly),
+     * pas la somme des uniques par vidéo.
+     */
     public List<HourlyStats> viewsLast24h() {
         String sql = """
-            SELECT EXTRACT(HOUR FROM viewed_at) as hr, COUNT(*) as cnt
-            FROM view_events
-            WHERE viewed_at >= DATEADD('HOUR', -24, CURRENT_TIMESTAMP)
-            GROUP BY EXTRACT(HOUR FROM viewed_at)
+            SELECT EXTRACT(HOUR FROM v.hour_start) as hr, SUM(v.views) as cnt,
+                   COALESCE(MAX(u.unique_viewers), 0) as uniq
+            FROM view_stats_hourly v
+            LEFT JOIN view_site_hourly u ON u.hour_start = v.hour_start
+            WHERE v.hour_start >= DATEADD('HOUR', -23, DATE_TRUNC('HOUR', LOCALTIMESTAMP))
+            GROUP BY EXTRACT(HOUR FROM v.hour_start)
             ORDER BY hr
         """;
         List<HourlyStats> list = new ArrayList<>();
@@ -50,7 +45,7 @@ public final class StatsRepository {
              Statement s = c.createStatement();
              ResultSet rs = s.executeQuery(sql)) {
             while (rs.next()) {
-                list.add(new HourlyStats(rs.getInt("hr"), rs.getInt("cnt")));
+                list.add(new HourlyStats(rs.getInt("hr"), rs.getInt("cnt"), rs.getInt("uniq")));
             }
         } catch (SQLException e) {
             AppLogger.warn(COMPONENT, "viewsLast24h error: " + e.getMessage());
@@ -63,8 +58,8 @@ public final class StatsRepository {
         VideoRepository vr = new VideoRepository();
         int totalVideos = vr.countTotal();
         long viewsToday = vr.totalViewsToday();
-        long totalViews = countQuery("SELECT COUNT(*) FROM view_events");
-        double totalBandwidthMb = sumQuery("SELECT SUM(bytes_served) / 1048576.0 FROM view_events");
+        long totalViews = countQuery("SELECT COALESCE(SUM(views), 0) FROM view_stats_daily");
+        double totalBandwidthMb = sumQuery("SELECT COALESCE(SUM(bytes_served), 0) / 1048576.0 FROM view_stats_daily");
         List<VideoMetadata> top5 = vr.findTopViewed(5);
         return new DashboardStats(totalVideos, activeStreamCount, viewsToday, totalViews, totalBandwidthMb, top5);
     }
@@ -72,8 +67,8 @@ public final class StatsRepository {
     /** Bande passante totale en Mo transmis aujourd'hui */
     public double bandwidthTodayMb() {
         return sumQuery("""
-            SELECT COALESCE(SUM(bytes_served),0) / 1048576.0 FROM view_events
-            WHERE CAST(viewed_at AS DATE) = CAST(CURRENT_TIMESTAMP AS DATE)
+            SELECT COALESCE(SUM(bytes_served),0) / 1048576.0 FROM view_stats_daily
+            WHERE view_date = CURRENT_DATE
         """);
     }
 
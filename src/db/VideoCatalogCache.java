@@ -0,0 +1,166 @@
+package db;
+
+import common.AppConfig;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
+
+/**
+ * Cache en mémoire des lignes videos lues par VideoRepository.findById / findByTitle
+ * (chaque flux, téléchargement, enregistrement Diary), par id et par titre normalisé.
+ *
+ * LRU de catalog.cache.max.entries vidéos, entrées expirées après catalog.cache.ttl.ms
+ * (0 = cache désactivé). Les écritures de VideoRepository et CategoryRepository
+ * invalident leurs entrées et préviennent le listener (événement SSE video_updated) ;
+ * le TTL borne le retard sur les écritures des autres processus (streaming, Diary).
+ *
+ * Les vidéos sont gardées sans les deltas de VideoCounters, que VideoRepository ajoute
+ * à chaque lecture ; addCounts() reporte ici les deltas écrits en base. Une lecture
+ * commencée avant une invalidation n'est pas mise en cache (numéro de génération).
+ *
+ * getVersion() change à chaque modification du catalogue ou écriture de compteurs :
+ * les vues dérivées (instantané de /api/videos) se reconstruisent quand elle change.
+ */
+public final class VideoCatalogCache {
+
+    private static final VideoCatalogCache INSTANCE = new VideoCatalogCache();
+
+    private record Entry(VideoMetadata video, long expiresAt) {}
+
+    private final int maxEntries;
+    private final long ttlMs;
+    private final LinkedHashMap<Integer, Entry> byId = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Integer> idByTitle = new HashMap<>();
+    private long generation;
+    private volatile IntConsumer listener;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+    private final AtomicLong version = new AtomicLong();
+
+    private VideoCatalogCache() {
+        AppConfig cfg = AppConfig.get();
+        this.maxEntries = cfg.getCatalogCacheMaxEntries();
+        this.ttlMs = cfg.getCatalogCacheTtlMs();
+    }
+
+    public static VideoCatalogCache get() {
+        return INSTANCE;
+    }
+
+    /** Appelé après chaque modification du catalogue, avec l'id de la vidéo (0 = plusieurs ou inconnue). */
+    public void setListener(IntConsumer l) { listener = l; }
+
+    public boolean isEnabled() { return maxEntries > 0 && ttlMs > 0; }
+
+    /** Copie de la vidéo en cache, null si absente ou expirée. */
+    synchronized VideoMetadata getById(int id) {
+        if (!isEnabled()) return null;
+        Entry e = byId.get(id);
+        if (e != null && e.expiresAt() < System.currentTimeMillis()) {
+            remove(id);
+            e = null;
+        }
+        if (e == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return e.video().copy();
+    }
+
+    synchronized VideoMetadata getByTitle(String title) {
+        if (!isEnabled()) return null;
+        Integer id = idByTitle.get(normalize(title));
+        if (id == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        return getById(id);
+    }
+
+    /** À lire avant la requête dont le résultat sera passé à put(). */
+    synchronized long generation() {
+        return generation;
+    }
+
+    /** Met en cache une ligne lue en base, sauf si une invalidation a eu lieu depuis loadedGeneration. */
+    synchronized void put(VideoMetadata video, long loadedGeneration) {
+        if (!isEnabled() || loadedGeneration != generation) return;
+        remove(video.getId());
+        byId.put(video.getId(), new Entry(video, System.currentTimeMillis() + ttlMs));
+        idByTitle.put(normalize(video.getTitle()), video.getId());
+        Iterator<Map.Entry<Integer, Entry>> it = byId.entrySet().iterator();
+        while (byId.size() > maxEntries && it.hasNext()) {
+            Entry eldest = it.next().getValue();
+            it.remove();
+            idByTitle.remove(normalize(eldest.video().getTitle()));
+        }
+    }
+
+    public void invalidate(int id) {
+        synchronized (this) {
+            generation++;
+            remove(id);
+        }
+        invalidated(id);
+    }
+
+    public void invalidateTitle(String title) {
+        int id;
+        synchronized (this) {
+            generation++;
+            Integer cached = idByTitle.remove(normalize(title));
+            id = cached == null ? 0 : cached;
+            if (cached != null) remove(cached);
+        }
+        invalidated(id);
+    }
+
+    public void invalidateAll() {
+        synchronized (this) {
+            generation++;
+            byId.clear();
+            idByTitle.clear();
+        }
+        invalidated(0);
+    }
+
+    /** Deltas de VideoCounters écrits en base : reportés sur les vidéos en cache. */
+    synchronized void addCounts(int id, long views, long downloads) {
+        generation++;
+        version.incrementAndGet();
+        Entry e = byId.get(id);
+        if (e == null) return;
+        VideoMetadata v = e.video();
+        v.setViewCount((int) (v.getViewCount() + views));
+        v.setDownloadCount((int) (v.getDownloadCount() + downloads));
+    }
+
+    private void remove(int id) {
+        Entry e = byId.remove(id);
+        if (e != null) idByTitle.remove(normalize(e.video().getTitle()));
+    }
+
+    private void invalidated(int id) {
+        version.incrementAndGet();
+        invalidations.incrementAndGet();
+        IntConsumer l = listener;
+        if (l != null) l.accept(id);
+    }
+
+    static String normalize(String title) {
+        return title == null ? "" : title.trim().toLowerCase(Locale.ROOT);
+    }
+
+    public synchronized int getSize() { return byId.size(); }
+    public long getHits()            { return hits.get(); }
+    public long getMisses()          { return misses.get(); }
+    public long getInvalidations()   { return invalidations.get(); }
+    public long getVersion()         { return version.get(); }
+}
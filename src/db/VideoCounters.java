@@ -0,0 +1,173 @@
+package db;
+
+import common.AppConfig;
+import common.AppLogger;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compteurs view_count / download_count en mémoire : les incréments vont dans un
+ * LongAdder par vidéo (pas de verrou de ligne H2 par session), et les deltas sont
+ * écrits toutes les counters.flush.ms en une transaction, plus une fois à l'arrêt
+ * (close(), par le hook de DatabaseManager, avant la fermeture de la base).
+ *
+ * VideoRepository ajoute le delta non écrit aux valeurs lues, pour que les API
+ * restent à jour entre deux écritures ; les deltas écrits sont reportés dans
+ * VideoCatalogCache et VideoSearchIndex.
+ */
+public final class VideoCounters {
+
+    private static final String COMPONENT = "VideoCounters";
+    private static final VideoCounters INSTANCE = new VideoCounters();
+
+    private static final String UPDATE =
+        "UPDATE videos SET view_count = view_count + ?, download_count = download_count + ? WHERE id=?";
+
+    /** Deltas d'une vidéo ; inFlight* = prélevé par une écriture pas encore validée ni reportée dans les caches. */
+    private static final class Counter {
+        final LongAdder views = new LongAdder();
+        final LongAdder downloads = new LongAdder();
+        final AtomicLong inFlightViews = new AtomicLong();
+        final AtomicLong inFlightDownloads = new AtomicLong();
+    }
+
+    private record Delta(int videoId, Counter counter, long views, long downloads) {}
+
+    private final Map<Integer, Counter> counters = new ConcurrentHashMap<>();
+    private final AtomicLong flushes = new AtomicLong();
+    private ScheduledExecutorService scheduler;
+
+    private VideoCounters() {}
+
+    public static VideoCounters get() {
+        return INSTANCE;
+    }
+
+    public void incrementViews(int videoId) {
+        counter(videoId).views.increment();
+    }
+
+    public void incrementDownloads(int videoId) {
+        counter(videoId).downloads.increment();
+    }
+
+    /** Vues pas encore écrites dans videos.view_count. */
+    public long pendingViews(int videoId) {
+        Counter c = counters.get(videoId);
+        return c == null ? 0 : c.views.sum() + c.inFlightViews.get();
+    }
+
+    /** Téléchargements pas encore écrits dans videos.download_count. */
+    public long pendingDownloads(int videoId) {
+        Counter c = counters.get(videoId);
+        return c == null ? 0 : c.downloads.sum() + c.inFlightDownloads.get();
+    }
+
+    public long getPendingViews() {
+        long total = 0;
+        for (Counter c : counters.values()) total += c.views.sum() + c.inFlightViews.get();
+        return total;
+    }
+
+    public long getFlushes() { return flushes.get(); }
+
+    private Counter counter(int videoId) {
+        Counter c = counters.get(videoId);
+        if (c == null) {
+            c = counters.computeIfAbsent(videoId, id -> new Counter());
+            ensureStarted();
+        }
+        return c;
+    }
+
+    private synchronized void ensureStarted() {
+        if (scheduler != null) return;
+        long period = AppConfig.get().getCountersFlushMs();
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "video-counters-flush");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::flush, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /** Arrête les écritures périodiques et écrit les derniers deltas. */
+    public void close() {
+        ScheduledExecutorService s;
+        synchronized (this) {
+            s = scheduler;
+        }
+        if (s != null) s.shutdown();
+        flush();
+    }
+
+    /** Écrit les deltas accumulés ; en cas d'échec ils sont remis dans les compteurs. */
+    public synchronized void flush() {
+        List<Delta> deltas = new ArrayList<>();
+        counters.forEach((id, c) -> {
+            long v = c.views.sumThenReset();
+            long d = c.downloads.sumThenReset();
+            if (v == 0 && d == 0) return;
+            c.inFlightViews.addAndGet(v);
+            c.inFlightDownloads.addAndGet(d);
+            deltas.add(new Delta(id, c, v, d));
+        });
+        if (deltas.isEmpty()) return;
+
+        boolean ok = false;
+        try (Connection c = DatabaseManager.getInstance().getConnection()) {
+            c.setAutoCommit(false);
+            try (PreparedStatement ps = c.prepareStatement(UPDATE)) {
+                for (Delta d : deltas) {
+                    ps.setLong(1, d.views());
+                    ps.setLong(2, d.downloads());
+                    ps.setInt(3, d.videoId());
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+                c.commit();
+                ok = true;
+            } catch (SQLException e) {
+                c.rollback();
+                throw e;
+            }
+        } catch (SQLException | RuntimeException e) {
+            AppLogger.warn(COMPONENT, "Écriture des compteurs reportée: " + e.getMessage());
+        } finally {
+            if (!ok) {
+                // Remis dans les compteurs avant de quitter l'état "en cours d'écriture"
+                for (Delta d : deltas) {
+                    d.counter().views.add(d.views());
+                    d.counter().downloads.add(d.downloads());
+                    clearInFlight(d);
+                }
+            }
+        }
+        if (!ok) return;
+        try {
+            for (Delta d : deltas) {
+                VideoCatalogCache.get().addCounts(d.videoId(), d.views(), d.downloads());
+                VideoSearchIndex.get().addCounts(d.videoId(), d.views(), d.downloads());
+            }
+        } finally {
+            // Après les caches : une lecture voit le delta en attente ou dans la ligne, jamais aucun des deux
+            for (Delta d : deltas) clearInFlight(d);
+        }
+        flushes.incrementAndGet();
+    }
+
+    private static void clearInFlight(Delta d) {
+        d.counter().inFlightViews.addAndGet(-d.views());
+        d.counter().inFlightDownloads.addAndGet(-d.downloads());
+    }
+}
@@ -114,6 +114,36 @@ public final class VideoMetadata implements Serializable {
 
     // ─── Computed helpers ──────────────────────────────────────────────────
 
+    /** Copie champ à champ (les champs sont immuables ou primitifs). */
+    public VideoMetadata copy() {
+        VideoMetadata c = new VideoMetadata();
+        c.id = id;
+        c.title = title;
+        c.filePath = filePath;
+        c.host = host;
+        c.port = port;
+        c.fileSize = fileSize;
+        c.durationSec = durationSec;
+        c.resolution = resolution;
+        c.codec = codec;
+        c.fps = fps;
+        c.bitrateKbps = bitrateKbps;
+        c.qualityLabel = qualityLabel;
+        c.synopsis = synopsis;
+        c.categoryId = categoryId;
+        c.categoryName = categoryName;
+        c.categoryColor = categoryColor;
+        c.tags = tags;
+        c.viewCount = viewCount;
+        c.active = active;
+        c.free = free;
+        c.downloadCount = downloadCount;
+        c.createdAt = createdAt;
+        c.lastStreamedAt = lastStreamedAt;
+        c.thumbnailUrl = thumbnailUrl;
+        return c;
+    }
+
     /** Durée formatée ex: "1:32:45" ou "45:12" */
     public String getFormattedDuration() {
         if (durationSec <= 0) return "--:--";
@@ -152,6 +182,7 @@ public final class VideoMetadata implements Serializable {
 
     public String getStreamUrl() {
         if (host == null || port <= 0) return null;
-        return "http://" + host + ":" + port;
+        String base = "http://" + host + ":" + port;
+        return id > 0 ? base + "/v/" + id + "/stream" : base;
     }
 }
@@ -9,6 +9,8 @@ import java.util.Optional;
 
 /**
  * DAO pour la table videos avec toutes les métadonnées.
+ * findById / findByTitle passent par VideoCatalogCache, que chaque écriture invalide ;
+ * search() interroge VideoSearchIndex, dont les écritures marquent les vidéos à relire.
  */
 public final class VideoRepository {
 
@@ -51,6 +53,7 @@ public final class VideoRepository {
             ps.setString(14, vm.getTags());
             ps.setBoolean(15, vm.isActive());
             ps.executeUpdate();
+            changed(vm.getTitle());
 
             // Get ID - MERGE may not return generated keys in H2 cleanly, so we query
             Optional<VideoMetadata> existing = findByTitle(vm.getTitle());
@@ -69,6 +72,7 @@ public final class VideoRepository {
             ps.setInt(2, port);
             ps.setString(3, title.trim());
             int rows = ps.executeUpdate();
+            changed(title);
             if (rows == 0) {
                 // Video not yet in DB — insert minimal entry
                 VideoMetadata vm = new VideoMetadata();
@@ -89,6 +93,7 @@ public final class VideoRepository {
         try (Connection c = db.getConnection(); PreparedStatement ps = c.prepareStatement(sql)) {
             ps.setString(1, title.trim());
             ps.executeUpdate();
+            changed(title);
         } catch (SQLException e) {
             AppLogger.error(COMPONENT, "Erreur markStreamStopped: " + e.getMessage());
         }
@@ -103,11 +108,26 @@ public final class VideoRepository {
             ps.setString(3, tags);
             ps.setInt(4, id);
             ps.executeUpdate();
+            changed(id);
         } catch (SQLException e) {
             AppLogger.error(COMPONENT, "Erreur updateMetadata: " + e.getMessage());
         }
     }
 
+    /** Met à jour is_free et/ou is_active (null = inchangé) */
+    public void updateFlags(int id, Boolean free, Boolean active) {
+        String sql = "UPDATE videos SET is_free = COALESCE(?, is_free), is_active = COALESCE(?, is_active) WHERE id = ?";
+        try (Connection c = db.getConnection(); PreparedStatement ps = c.prepareStatement(sql)) {
+            if (free != null) ps.setBoolean(1, free); else ps.setNull(1, Types.BOOLEAN);
+            if (active != null) ps.setBoolean(2, active); else ps.setNull(2, Types.BOOLEAN);
+            ps.setInt(3, id);
+            ps.executeUpdate();
+            changed(id);
+        } catch (SQLException e) {
+            AppLogger.warn(COMPONENT, "Erreur updateFlags: " + e.getMessage());
+        }
+    }
+
     public boolean setActive(int id, boolean active) {
         String sql = "UPDATE videos SET is_active=?, last_streamed_at=? WHERE id=?";
         try (Connection c = db.getConnection(); PreparedStatement ps = c.prepareStatement(sql)) {
@@ -115,46 +135,55 @@ public final class VideoRepository {
             if (active) ps.setTimestamp(2, Timestamp.valueOf(LocalDateTime.now()));
             else ps.setNull(2, Types.TIMESTAMP);
             ps.setInt(3, id);
-            return ps.executeUpdate() > 0;
+            int rows = ps.executeUpdate();
+            changed(id);
+            return rows > 0;
         } catch (SQLException e) {
             AppLogger.error(COMPONENT, "Erreur setActive: " + e.getMessage());
             return false;
         }
     }
 
-    /** Incrémente le compteur de vues */
+    /** Incrémente le compteur de vues (en mémoire, écrit périodiquement par VideoCounters) */
     public void incrementViewCount(int id) {
-        String sql = "UPDATE videos SET view_count = view_count + 1 WHERE id=?";
-        try (Connection c = db.getConnection(); PreparedStatement ps = c.prepareStatement(sql)) {
-            ps.setInt(1, id);
-            ps.executeUpdate();
-        } catch (SQLException e) {
-            AppLogger.warn(COMPONENT, "Erreur incrementViewCount: " + e.getMessage());
-        }
+        VideoCounters.get().incrementViews(id);
     }
 
     public Optional<VideoMetadata> findByTitle(String title) {
-        String sql = SELECT_ALL + " WHERE LOWER(v.title) = LOWER(?)";
-        try (Connection c = db.getConnection(); PreparedStatement ps = c.prepareStatement(sql)) {
-            ps.setString(1, title.trim());
-            ResultSet rs = ps.executeQuery();
-            if (rs.next()) return Optional.of(map(rs));
-        } catch (SQLException e) {
-            AppLogger.error(COMPONENT, "findByTitle error: " + e.getMessage());
-        }
-        return Optional.empty();
+        VideoCatalogCache cache = VideoCatalogCache.get();
+        VideoMetadata cached = cache.getByTitle(title);
+        if (cached != null) return Optional.of(withPendingCounts(cached));
+        long generation = cache.generation();
+        // Titre exact d'abord (index UNIQUE), LOWER() ne peut pas utiliser l'index
+        VideoMetadata vm = findOne(SELECT_ALL + " WHERE v.title = ?", title.trim());
+        if (vm == null) vm = findOne(SELECT_ALL + " WHERE LOWER(v.title) = LOWER(?)", title.trim());
+        if (vm == null) return Optional.empty();
+        cache.put(vm, generation);
+        return Optional.of(withPendingCounts(vm.copy()));
     }
 
     public Optional<VideoMetadata> findById(int id) {
-        String sql = SELECT_ALL + " WHERE v.id = ?";
+        VideoCatalogCache cache = VideoCatalogCache.get();
+        VideoMetadata cached = cache.getById(id);
+        if (cached != null) return Optional.of(withPendingCounts(cached));
+        long generation = cache.generation();
+        VideoMetadata vm = findOne(SELECT_ALL + " WHERE v.id = ?", id);
+        if (vm == null) return Optional.empty();
+        cache.put(vm, generation);
+        return Optional.of(withPendingCounts(vm.copy()));
+    }
+
+    /** Ligne brute (sans les deltas de VideoCounters), null si absente. */
+    private VideoMetadata findOne(String sql, Object key) {
         try (Connection c = db.getConnection(); PreparedStatement ps = c.prepareStatement(sql)) {
-            ps.setInt(1, id);
-            ResultSet rs = ps.executeQuery();
-            if (rs.next()) return Optional.of(map(rs));
+            ps.setObject(1, key);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? mapRow(rs) : null;
+            }
         } catch (SQLException e) {
-            AppLogger.error(COMPONENT, "findById error: " + e.getMessage());
+            AppLogger.error(COMPONENT, "findOne error: " + e.getMessage());
+            return null;
         }
-        return Optional.empty();
     }
 
     public List<VideoMetadata> findAll() {
@@ -177,7 +206,16 @@ public final class VideoRepository {
         }
     }
 
+    /** Recherche plein texte classée (VideoSearchIndex), LIKE en base si l'index est désactivé ou indisponible. */
     public List<VideoMetadata> search(String query) {
+        VideoSearchIndex index = VideoSearchIndex.get();
+        if (index.isEnabled()) {
+            List<VideoMetadata> hits = index.search(query, this);
+            if (hits != null) {
+                for (VideoMetadata vm : hits) withPendingCounts(vm);
+                return hits;
+            }
+        }
         String pattern = "%" + query.toLowerCase() + "%";
         String sql = SELECT_ALL + " WHERE LOWER(v.title) LIKE ? OR LOWER(v.synopsis) LIKE ? OR LOWER(v.tags) LIKE ? ORDER BY v.view_count DESC";
         try (Connection c = db.getConnection(); PreparedStatement ps = c.prepareStatement(sql)) {
@@ -191,6 +229,38 @@ public final class VideoRepository {
         }
     }
 
+    /** Suggestions de saisie (titres, tags, catégories), vide si l'index de recherche est désactivé. */
+    public List<VideoSuggestions.Suggestion> suggest(String query, int limit) {
+        VideoSearchIndex index = VideoSearchIndex.get();
+        if (!index.isEnabled()) return List.of();
+        List<VideoSuggestions.Suggestion> found = index.suggest(query, limit, this);
+        return found == null ? List.of() : found;
+    }
+
+    // ─── Lignes brutes (sans cache ni deltas de compteurs) pour VideoSearchIndex ──
+
+    VideoMetadata findRawById(int id) {
+        return findOne(SELECT_ALL + " WHERE v.id = ?", id);
+    }
+
+    VideoMetadata findRawByTitle(String title) {
+        return findOne(SELECT_ALL + " WHERE v.title = ?", title.trim());
+    }
+
+    /** Toutes les vidéos, null en cas d'erreur. */
+    List<VideoMetadata> findAllRaw() {
+        try (Connection c = db.getConnection();
+             PreparedStatement ps = c.prepareStatement(SELECT_ALL);
+             ResultSet rs = ps.executeQuery()) {
+            List<VideoMetadata> list = new ArrayList<>();
+            while (rs.next()) list.add(mapRow(rs));
+            return list;
+        } catch (SQLException e) {
+            AppLogger.error(COMPONENT, "findAllRaw error: " + e.getMessage());
+            return null;
+        }
+    }
+
     public List<VideoMetadata> findTopViewed(int limit) {
         String sql = SELECT_ALL + " ORDER BY v.view_count DESC LIMIT ?";
         try (Connection c = db.getConnection(); PreparedStatement ps = c.prepareStatement(sql)) {
@@ -220,9 +290,9 @@ public final class VideoRepository {
             LEFT JOIN categories c ON v.category_id = c.id
             WHERE v.is_active = TRUE
             ORDER BY (
-                SELECT COUNT(*) FROM view_events ve
-                WHERE ve.video_id = v.id
-                  AND ve.viewed_at >= DATEADD('DAY', ?, CURRENT_TIMESTAMP)
+                SELECT COALESCE(SUM(d.views), 0) FROM view_stats_daily d
+                WHERE d.video_id = v.id
+                  AND d.view_date >= DATEADD('DAY', ?, CURRENT_DATE)
             ) DESC, v.view_count DESC, v.created_at DESC
             LIMIT ?
         """;
@@ -240,7 +310,9 @@ public final class VideoRepository {
         String sql = "DELETE FROM videos WHERE id=?";
         try (Connection c = db.getConnection(); PreparedStatement ps = c.prepareStatement(sql)) {
             ps.setInt(1, id);
-            return ps.executeUpdate() > 0;
+            int rows = ps.executeUpdate();
+            changed(id);
+            return rows > 0;
         } catch (SQLException e) {
             AppLogger.error(COMPONENT, "delete error: " + e.getMessage());
             return false;
@@ -256,16 +328,26 @@ public final class VideoRepository {
     }
 
     public long totalViewsToday() {
-        String sql = "SELECT COUNT(*) FROM view_events WHERE CAST(viewed_at AS DATE) = CAST(CURRENT_TIMESTAMP AS DATE)";
+        String sql = "SELECT COALESCE(SUM(views), 0) FROM view_stats_daily WHERE view_date = CURRENT_DATE";
         return countQuery(sql);
     }
 
     // ─── Private helpers ────────────────────────────────────────────────────
 
+    private static void changed(int id) {
+        VideoCatalogCache.get().invalidate(id);
+        VideoSearchIndex.get().markDirty(id);
+    }
+
+    private static void changed(String title) {
+        VideoCatalogCache.get().invalidateTitle(title);
+        VideoSearchIndex.get().markDirtyTitle(title);
+    }
+
     private List<VideoMetadata> query(String sql) {
         try (Connection c = db.getConnection();
-             Statement s = c.createStatement();
-             ResultSet rs = s.executeQuery(sql)) {
+             PreparedStatement ps = c.prepareStatement(sql);
+             ResultSet rs = ps.executeQuery()) {
             return mapAll(rs);
         } catch (SQLException e) {
             AppLogger.error(COMPONENT, "query error: " + e.getMessage());
@@ -281,8 +363,8 @@ public final class VideoRepository {
 
     private int countQuery(String sql) {
         try (Connection c = db.getConnection();
-             Statement s = c.createStatement();
-             ResultSet rs = s.executeQuery(sql)) {
+             PreparedStatement ps = c.prepareStatement(sql);
+             ResultSet rs = ps.executeQuery()) {
             return rs.next() ? rs.getInt(1) : 0;
         } catch (SQLException e) {
             AppLogger.error(COMPONENT, "countQuery error: " + e.getMessage());
@@ -291,6 +373,18 @@ public final class VideoRepository {
     }
 
     private VideoMetadata map(ResultSet rs) throws SQLException {
+        return withPendingCounts(mapRow(rs));
+    }
+
+    /** Ajoute les deltas pas encore écrits par VideoCounters. */
+    private static VideoMetadata withPendingCounts(VideoMetadata vm) {
+        int id = vm.getId();
+        vm.setViewCount((int) (vm.getViewCount() + VideoCounters.get().pendingViews(id)));
+        vm.setDownloadCount((int) (vm.getDownloadCount() + VideoCounters.get().pendingDownloads(id)));
+        return vm;
+    }
+
+    private VideoMetadata mapRow(ResultSet rs) throws SQLException {
         VideoMetadata vm = new VideoMetadata();
         vm.setId(rs.getInt("id"));
         vm.setTitle(rs.getString("title"));
@@ -324,7 +418,8 @@ public final class VideoRepository {
         String host = vm.getHost();
         int port = vm.getPort();
         if (host != null && port > 0) {
-            vm.setThumbnailUrl("http://" + host + ":" + port + "/thumbnail");
+            String base = "http://" + host + ":" + port;
+            vm.setThumbnailUrl((vm.getId() > 0 ? base + "/v/" + vm.getId() : base) + "/thumbnail");
         }
         return vm;
     }
@@ -0,0 +1,470 @@
+package db;
+
+import common.AppConfig;
+import common.AppLogger;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Index inversé en mémoire pour VideoRepository.search : titre, tags, nom de
+ * catégorie et synopsis, découpés en termes sans accents ni casse ("Été" = "ete").
+ *
+ * Chaque mot de la requête doit correspondre à un terme de la vidéo, exact ou par
+ * préfixe (saisie en cours) ; le score est un BM25 pondéré par champ, multiplié par
+ * 1 + search.popularity.weight × ln(1 + vues).
+ *
+ * Les écritures de VideoRepository marquent les vidéos modifiées, relues avant la
+ * recherche suivante ; CategoryRepository et search.index.refresh.ms provoquent une
+ * reconstruction complète (écritures des autres processus), faite en tâche de fond
+ * pendant que les recherches utilisent l'index courant. Les vidéos sont gardées sans
+ * les deltas de VideoCounters, comme dans VideoCatalogCache.
+ */
+public final class VideoSearchIndex {
+
+    private static final String COMPONENT = "VideoSearchIndex";
+    private static final VideoSearchIndex INSTANCE = new VideoSearchIndex();
+
+    // Poids des champs dans la fréquence des termes
+    private static final float W_TITLE = 3.0f;
+    private static final float W_TAGS = 2.0f;
+    private static final float W_CATEGORY = 1.5f;
+    private static final float W_SYNOPSIS = 1.0f;
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    /** Un terme trouvé par préfixe compte moins qu'un mot complet. */
+    private static final double PREFIX_FACTOR = 0.6;
+    private static final long SUGGESTIONS_MIN_INTERVAL_MS = 1000;
+
+    private static final class Doc {
+        VideoMetadata video;
+        final Map<String, Float> tf;
+        final float length;
+
+        Doc(VideoMetadata video, Map<String, Float> tf, float length) {
+            this.video = video;
+            this.tf = tf;
+            this.length = length;
+        }
+    }
+
+    /** Contenu de l'index ; remplacé en bloc à chaque reconstruction. */
+    private static final class Index {
+        final Map<Integer, Doc> docs = new HashMap<>();
+        final Map<String, Integer> idByTitle = new HashMap<>();
+        final TreeMap<String, Map<Integer, Float>> postings = new TreeMap<>();
+        final long builtAt = System.currentTimeMillis();
+        double totalLength;
+
+        void put(VideoMetadata vm) {
+            remove(vm.getId());
+            Map<String, Float> tf = new HashMap<>();
+            float length = addField(tf, vm.getTitle(), W_TITLE)
+                + addField(tf, vm.getTags(), W_TAGS)
+                + addField(tf, vm.getCategoryName(), W_CATEGORY)
+                + addField(tf, vm.getSynopsis(), W_SYNOPSIS);
+            docs.put(vm.getId(), new Doc(vm, tf, length));
+            if (vm.getTitle() != null) idByTitle.put(vm.getTitle(), vm.getId());
+            for (Map.Entry<String, Float> e : tf.entrySet()) {
+                postings.computeIfAbsent(e.getKey(), k -> new HashMap<>()).put(vm.getId(), e.getValue());
+            }
+            totalLength += length;
+        }
+
+        void remove(int id) {
+            Doc d = docs.remove(id);
+            if (d == null) return;
+            idByTitle.remove(d.video.getTitle(), id);
+            for (String term : d.tf.keySet()) {
+                Map<Integer, Float> p = postings.get(term);
+                if (p == null) continue;
+                p.remove(id);
+                if (p.isEmpty()) postings.remove(term);
+            }
+            totalLength -= d.length;
+        }
+
+        private static float addField(Map<String, Float> tf, String text, float weight) {
+            List<String> terms = tokenize(text);
+            for (String t : terms) tf.merge(t, weight, Float::sum);
+            return terms.size() * weight;
+        }
+    }
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Set<Integer> dirtyIds = ConcurrentHashMap.newKeySet();
+    private final Set<String> dirtyTitles = ConcurrentHashMap.newKeySet();
+    private final boolean enabled;
+    private final long refreshMs;
+    private final double popularityWeight;
+    private volatile Index index;
+    private volatile boolean stale = true;
+    private volatile boolean rebuilding;
+    private ExecutorService refresher;
+    /** Incrémenté à chaque vidéo ajoutée, modifiée ou retirée, et à chaque reconstruction. */
+    private final AtomicLong contentVersion = new AtomicLong();
+    private volatile VideoSuggestions suggestions;
+    private volatile long suggestionsVersion;
+    private volatile long suggestionsBuiltAt;
+    private volatile boolean suggestionsBuilding;
+    private volatile long lastSuggestionsBuildMs;
+
+    private final AtomicLong queries = new AtomicLong();
+    private final AtomicLong rebuilds = new AtomicLong();
+    private final AtomicLong updates = new AtomicLong();
+    private volatile long lastRebuildMs;
+
+    private VideoSearchIndex() {
+        AppConfig cfg = AppConfig.get();
+        this.enabled = cfg.isSearchIndexEnabled();
+        this.refreshMs = cfg.getSearchIndexRefreshMs();
+        this.popularityWeight = cfg.getSearchPopularityWeight();
+    }
+
+    public static VideoSearchIndex get() {
+        return INSTANCE;
+    }
+
+    public boolean isEnabled() { return enabled; }
+
+    /** Vidéo modifiée : relue avant la prochaine recherche. */
+    void markDirty(int id) {
+        if (enabled) dirtyIds.add(id);
+    }
+
+    void markDirtyTitle(String title) {
+        if (enabled && title != null) dirtyTitles.add(title.trim());
+    }
+
+    /** Reconstruction complète avant la prochaine recherche (catégorie renommée ou supprimée). */
+    public void invalidateAll() {
+        stale = true;
+    }
+
+    /** Deltas de VideoCounters écrits en base : reportés sur les vidéos indexées. */
+    void addCounts(int id, long views, long downloads) {
+        if (index == null) return;
+        lock.writeLock().lock();
+        try {
+            // La lecture en cours a pu voir ou non ces deltas : vidéo relue après
+            if (rebuilding) dirtyIds.add(id);
+            Doc d = index.docs.get(id);
+            if (d == null) return;
+            VideoMetadata v = d.video.copy();
+            v.setViewCount((int) (v.getViewCount() + views));
+            v.setDownloadCount((int) (v.getDownloadCount() + downloads));
+            d.video = v;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Vidéos correspondant à tous les mots de la requête, les plus pertinentes d'abord
+     * (copies brutes), null si l'index n'a pas pu être construit.
+     */
+    List<VideoMetadata> search(String query, VideoRepository repo) {
+        queries.incrementAndGet();
+        List<String> words = tokenize(query);
+        if (words.isEmpty()) return List.of();
+        sync(repo);
+
+        lock.readLock().lock();
+        try {
+            Index idx = index;
+            if (idx == null) return null;
+            Map<Integer, Double> scores = null;
+            for (String word : words) {
+                Map<Integer, Double> matched = scoreWord(idx, word);
+                if (scores == null) {
+                    scores = matched;
+                } else {
+                    scores.keySet().retainAll(matched.keySet());
+                    for (Map.Entry<Integer, Double> e : scores.entrySet()) e.setValue(e.getValue() + matched.get(e.getKey()));
+                }
+                if (scores.isEmpty()) return List.of();
+            }
+
+            record Hit(VideoMetadata video, double score, long views) {}
+            List<Hit> hits = new ArrayList<>(scores.size());
+            for (Map.Entry<Integer, Double> e : scores.entrySet()) {
+                VideoMetadata v = idx.docs.get(e.getKey()).video;
+                long views = v.getViewCount() + VideoCounters.get().pendingViews(v.getId());
+                double score = e.getValue() * (1 + popularityWeight * Math.log1p(Math.max(0, views)));
+                hits.add(new Hit(v, score, views));
+            }
+            hits.sort(Comparator.comparingDouble(Hit::score).reversed()
+                .thenComparing(Comparator.comparingLong(Hit::views).reversed())
+                .thenComparingInt(h -> h.video().getId()));
+            List<VideoMetadata> result = new ArrayList<>(hits.size());
+            for (Hit h : hits) result.add(h.video().copy());
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Suggestions de saisie (VideoSuggestions) ; null si l'index n'a pas pu être construit.
+     * Reconstruites en tâche de fond quand le contenu de l'index a changé, au plus une
+     * fois par seconde, ou après search.index.refresh.ms (popularité).
+     */
+    List<VideoSuggestions.Suggestion> suggest(String query, int limit, VideoRepository repo) {
+        sync(repo);
+        if (index == null) return null;
+        VideoSuggestions current = suggestions;
+        if (current == null) {
+            synchronized (this) {
+                if (suggestions == null) buildSuggestions();
+                current = suggestions;
+            }
+            if (current == null) return List.of();
+        } else if (suggestionsDue()) {
+            synchronized (this) {
+                if (!suggestionsBuilding && suggestionsDue()) {
+                    suggestionsBuilding = true;
+                    refresher().execute(this::buildSuggestions);
+                }
+            }
+        }
+        return current.lookup(query, limit);
+    }
+
+    private boolean suggestionsDue() {
+        long age = System.currentTimeMillis() - suggestionsBuiltAt;
+        return (suggestionsVersion != contentVersion.get() && age >= SUGGESTIONS_MIN_INTERVAL_MS) || age > refreshMs;
+    }
+
+    private void buildSuggestions() {
+        long start = System.currentTimeMillis();
+        try {
+            long version = contentVersion.get();
+            List<VideoMetadata> videos;
+            lock.readLock().lock();
+            try {
+                videos = new ArrayList<>(index.docs.size());
+                for (Doc d : index.docs.values()) videos.add(d.video);
+            } finally {
+                lock.readLock().unlock();
+            }
+            suggestions = VideoSuggestions.build(videos);
+            suggestionsVersion = version;
+            suggestionsBuiltAt = System.currentTimeMillis();
+            lastSuggestionsBuildMs = suggestionsBuiltAt - start;
+        } catch (RuntimeException e) {
+            AppLogger.warn(COMPONENT, "Suggestions non reconstruites: " + e.getMessage());
+        } finally {
+            suggestionsBuilding = false;
+        }
+    }
+
+    /**
+     * BM25 d'un mot de la requête : meilleur terme parmi le mot exact et toutes ses
+     * extensions. Pas de plafond : une vidéo qui ne correspond que par un terme lointain
+     * dans l'ordre alphabétique ("a" → "avion") doit rester dans le résultat, comme avec LIKE.
+     */
+    private static Map<Integer, Double> scoreWord(Index idx, String word) {
+        Map<Integer, Double> best = new HashMap<>();
+        int n = idx.docs.size();
+        double avgLength = n == 0 ? 1 : Math.max(1e-6, idx.totalLength / n);
+        SortedMap<String, Map<Integer, Float>> range = idx.postings.subMap(word, word + Character.MAX_VALUE);
+        for (Map.Entry<String, Map<Integer, Float>> term : range.entrySet()) {
+            Map<Integer, Float> postings = term.getValue();
+            double factor = term.getKey().equals(word) ? 1.0 : PREFIX_FACTOR;
+            double idf = Math.log(1 + (n - postings.size() + 0.5) / (postings.size() + 0.5));
+            for (Map.Entry<Integer, Float> p : postings.entrySet()) {
+                double tf = p.getValue();
+                double norm = K1 * (1 - B + B * idx.docs.get(p.getKey()).length / avgLength);
+                double s = factor * idf * tf * (K1 + 1) / (tf + norm);
+                best.merge(p.getKey(), s, Math::max);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Première construction avant de répondre ; ensuite, reconstruction en tâche de fond
+     * si l'index est invalidé ou trop ancien (les recherches gardent l'index courant),
+     * sinon relecture des vidéos modifiées.
+     */
+    private void sync(VideoRepository repo) {
+        Index current = index;
+        if (current != null && !rebuildDue(current) && dirtyIds.isEmpty() && dirtyTitles.isEmpty()) return;
+        synchronized (this) {
+            current = index;
+            if (current == null) {
+                rebuilding = true;
+                rebuild(repo);
+                return;
+            }
+            // Marques gardées pour le nouvel index
+            if (rebuilding) return;
+            if (rebuildDue(current)) {
+                rebuilding = true;
+                refresher().execute(() -> rebuild(new VideoRepository()));
+                return;
+            }
+            applyDirty(current, repo);
+        }
+    }
+
+    private boolean rebuildDue(Index current) {
+        return stale || System.currentTimeMillis() - current.builtAt > refreshMs;
+    }
+
+    private void applyDirty(Index current, VideoRepository repo) {
+        List<Integer> ids = drain(dirtyIds);
+        List<String> titles = drain(dirtyTitles);
+        if (ids.isEmpty() && titles.isEmpty()) return;
+        List<VideoMetadata> loaded = new ArrayList<>();
+        List<Integer> removedIds = new ArrayList<>();
+        List<String> removedTitles = new ArrayList<>();
+        for (int id : ids) {
+            VideoMetadata vm = repo.findRawById(id);
+            if (vm != null) loaded.add(vm); else removedIds.add(id);
+        }
+        for (String title : titles) {
+            VideoMetadata vm = repo.findRawByTitle(title);
+            if (vm != null) loaded.add(vm); else removedTitles.add(title);
+        }
+        lock.writeLock().lock();
+        try {
+            for (int id : removedIds) current.remove(id);
+            for (String title : removedTitles) {
+                Integer id = current.idByTitle.get(title);
+                if (id != null) current.remove(id);
+            }
+            for (VideoMetadata vm : loaded) current.put(vm);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        updates.addAndGet(ids.size() + titles.size());
+        contentVersion.incrementAndGet();
+    }
+
+    /** Appelé avec rebuilding = true ; les marques posées pendant la lecture restent pour le nouvel index. */
+    private void rebuild(VideoRepository repo) {
+        long start = System.currentTimeMillis();
+        Index fresh = null;
+        try {
+            stale = false;
+            dirtyIds.clear();
+            dirtyTitles.clear();
+            List<VideoMetadata> rows = repo.findAllRaw();
+            if (rows != null) {
+                fresh = new Index();
+                for (VideoMetadata vm : rows) fresh.put(vm);
+            }
+        } catch (RuntimeException e) {
+            AppLogger.warn(COMPONENT, "Reconstruction échouée: " + e.getMessage());
+            fresh = null;
+        } finally {
+            lock.writeLock().lock();
+            try {
+                if (fresh != null) index = fresh;
+                rebuilding = false;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        if (fresh == null) {
+            // Base indisponible : ancien index gardé, nouvel essai à la prochaine recherche
+            stale = true;
+            return;
+        }
+        rebuilds.incrementAndGet();
+        contentVersion.incrementAndGet();
+        lastRebuildMs = System.currentTimeMillis() - start;
+        AppLogger.debug(COMPONENT, "Index reconstruit: " + fresh.docs.size() + " vidéos, "
+            + fresh.postings.size() + " termes en " + lastRebuildMs + " ms");
+    }
+
+    private synchronized ExecutorService refresher() {
+        if (refresher == null) {
+            refresher = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "search-index");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return refresher;
+    }
+
+    private static <T> List<T> drain(Set<T> set) {
+        List<T> out = new ArrayList<>();
+        for (Iterator<T> it = set.iterator(); it.hasNext(); ) {
+            out.add(it.next());
+            it.remove();
+        }
+        return out;
+    }
+
+    /** Termes d'un texte : minuscules sans accents, ligatures dépliées, coupés sur tout ce qui n'est ni lettre ni chiffre. */
+    static List<String> tokenize(String text) {
+        List<String> terms = new ArrayList<>();
+        if (text == null || text.isBlank()) return terms;
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        StringBuilder term = new StringBuilder();
+        for (int i = 0; i < decomposed.length(); i++) {
+            char ch = decomposed.charAt(i);
+            if (Character.getType(ch) == Character.NON_SPACING_MARK) continue;
+            if (Character.isLetterOrDigit(ch)) {
+                switch (Character.toLowerCase(ch)) {
+                    case 'œ' -> term.append("oe");
+                    case 'æ' -> term.append("ae");
+                    case 'ß' -> term.append("ss");
+                    default -> term.append(Character.toLowerCase(ch));
+                }
+            } else if (!term.isEmpty()) {
+                terms.add(term.toString());
+                term.setLength(0);
+            }
+        }
+        if (!term.isEmpty()) terms.add(term.toString());
+        return terms;
+    }
+
+    public int getSize() {
+        lock.readLock().lock();
+        try {
+            Index idx = index;
+            return idx == null ? 0 : idx.docs.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getTerms() {
+        lock.readLock().lock();
+        try {
+            Index idx = index;
+            return idx == null ? 0 : idx.postings.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long getQueries()       { return queries.get(); }
+    public long getRebuilds()      { return rebuilds.get(); }
+    public long getUpdates()       { return updates.get(); }
+    public long getLastRebuildMs() { return lastRebuildMs; }
+    public long getLastSuggestionsBuildMs() { return lastSuggestionsBuildMs; }
+
+    public int getSuggestions() {
+        VideoSuggestions s = suggestions;
+        return s == null ? 0 : s.size();
+    }
+}
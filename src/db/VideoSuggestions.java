@@ -0,0 +1,224 @@
+package db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Suggestions de saisie pour /api/videos/suggest : titres des vidéos actives, tags et
+ * catégories, trouvés par le début d'un de leurs mots ("ete" → "Aventure été 12").
+ *
+ * Structure immuable et compacte : un texte replié par suggestion (termes de
+ * VideoSearchIndex.tokenize séparés par une espace) et un tableau trié de positions
+ * (suggestion, début de mot) ; une recherche est une dichotomie puis un parcours de
+ * la plage du préfixe, en gardant les limit suggestions les plus populaires. Les
+ * préfixes d'un ou deux caractères, aux plages les plus longues, ont leur classement
+ * calculé à la construction.
+ * Popularité : vues de la vidéo, ou somme des vues des vidéos du tag / de la catégorie.
+ */
+public final class VideoSuggestions {
+
+    public static final String TITLE = "title";
+    public static final String TAG = "tag";
+    public static final String CATEGORY = "category";
+
+    /** Suggestion renvoyée : id de la vidéo ou de la catégorie, 0 pour un tag. */
+    public record Suggestion(String type, String text, int id) {}
+
+    /** Nombre maximal de suggestions par recherche. */
+    public static final int MAX_LIMIT = 20;
+    private static final int PRECOMPUTED_PREFIX = 2;
+
+    private final String[] folded;
+    private final String[] texts;
+    private final String[] types;
+    private final int[] ids;
+    private final long[] popularity;
+    /** Positions triées par suffixe replié : suggestion << 32 | décalage dans folded. */
+    private final long[] entries;
+    /** Classement des préfixes courts (PRECOMPUTED_PREFIX caractères au plus). */
+    private final Map<String, int[]> shortPrefixes = new HashMap<>();
+
+    private VideoSuggestions(String[] folded, String[] texts, String[] types, int[] ids, long[] popularity, long[] entries) {
+        this.folded = folded;
+        this.texts = texts;
+        this.types = types;
+        this.ids = ids;
+        this.popularity = popularity;
+        this.entries = entries;
+        for (int len = 1; len <= PRECOMPUTED_PREFIX; len++) rankPrefixes(len);
+    }
+
+    /** Parcourt les entrées triées : chaque préfixe de longueur len forme une plage contiguë. */
+    private void rankPrefixes(int len) {
+        int[] best = new int[MAX_LIMIT];
+        int count = 0;
+        String current = null;
+        for (long entry : entries) {
+            String f = folded[(int) (entry >>> 32)];
+            int off = (int) entry;
+            if (f.length() - off < len) continue;
+            if (current == null || !f.startsWith(current, off)) {
+                if (current != null) shortPrefixes.put(current, Arrays.copyOf(best, count));
+                current = f.substring(off, off + len);
+                count = 0;
+            }
+            count = offer(best, count, (int) (entry >>> 32));
+        }
+        if (current != null) shortPrefixes.put(current, Arrays.copyOf(best, count));
+    }
+
+    /** Construit les suggestions depuis des vidéos brutes (les vidéos inactives sont ignorées). */
+    static VideoSuggestions build(Collection<VideoMetadata> videos) {
+        List<String> texts = new ArrayList<>();
+        List<String> types = new ArrayList<>();
+        List<Integer> ids = new ArrayList<>();
+        List<Long> pops = new ArrayList<>();
+        Map<String, Integer> tags = new HashMap<>();
+        Map<Integer, Integer> categories = new HashMap<>();
+
+        for (VideoMetadata v : videos) {
+            if (!v.isActive() || v.getTitle() == null) continue;
+            long views = Math.max(0, v.getViewCount());
+            add(texts, types, ids, pops, TITLE, v.getTitle(), v.getId(), views);
+            if (v.getTags() != null) {
+                for (String tag : v.getTags().split(",")) {
+                    String t = tag.trim();
+                    String key = fold(t);
+                    if (key.isEmpty()) continue;
+                    Integer i = tags.get(key);
+                    if (i == null) tags.put(key, add(texts, types, ids, pops, TAG, t, 0, views));
+                    else pops.set(i, pops.get(i) + views);
+                }
+            }
+            if (v.getCategoryId() > 0 && v.getCategoryName() != null) {
+                Integer i = categories.get(v.getCategoryId());
+                if (i == null) categories.put(v.getCategoryId(), add(texts, types, ids, pops, CATEGORY, v.getCategoryName(), v.getCategoryId(), views));
+                else pops.set(i, pops.get(i) + views);
+            }
+        }
+
+        int n = texts.size();
+        String[] folded = new String[n];
+        int entryCount = 0;
+        for (int i = 0; i < n; i++) {
+            folded[i] = fold(texts.get(i));
+            entryCount += wordStarts(folded[i]);
+        }
+        long[] entries = new long[entryCount];
+        int e = 0;
+        for (int i = 0; i < n; i++) {
+            String f = folded[i];
+            for (int off = 0; off < f.length(); off++) {
+                if (off == 0 || f.charAt(off - 1) == ' ') entries[e++] = (long) i << 32 | off;
+            }
+        }
+        // Tri par suffixe : boîtage temporaire, le résultat reste un long[]
+        Long[] boxed = new Long[entryCount];
+        for (int i = 0; i < entryCount; i++) boxed[i] = entries[i];
+        Arrays.sort(boxed, (a, b) -> compareSuffix(folded, a, b));
+        for (int i = 0; i < entryCount; i++) entries[i] = boxed[i];
+
+        long[] popularity = new long[n];
+        int[] idArr = new int[n];
+        for (int i = 0; i < n; i++) {
+            popularity[i] = pops.get(i);
+            idArr[i] = ids.get(i);
+        }
+        return new VideoSuggestions(folded, texts.toArray(String[]::new), types.toArray(String[]::new), idArr, popularity, entries);
+    }
+
+    /** Les limit suggestions les plus populaires dont un mot commence par la saisie. */
+    public List<Suggestion> lookup(String query, int limit) {
+        String prefix = fold(query);
+        limit = Math.min(limit, MAX_LIMIT);
+        if (prefix.isEmpty() || limit <= 0) return List.of();
+
+        int[] best;
+        int count;
+        if (prefix.length() <= PRECOMPUTED_PREFIX) {
+            best = shortPrefixes.getOrDefault(prefix, new int[0]);
+            count = Math.min(limit, best.length);
+        } else {
+            best = new int[limit];
+            count = 0;
+            for (int i = lowerBound(prefix); i < entries.length; i++) {
+                int s = (int) (entries[i] >>> 32);
+                if (!folded[s].startsWith(prefix, (int) entries[i])) break;
+                count = offer(best, count, s);
+            }
+        }
+        List<Suggestion> out = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) out.add(new Suggestion(types[best[i]], texts[best[i]], ids[best[i]]));
+        return out;
+    }
+
+    /** Insère s dans best (trié par popularité décroissante, sans doublon) s'il y a sa place. */
+    private int offer(int[] best, int count, int s) {
+        for (int i = 0; i < count; i++) if (best[i] == s) return count;
+        if (count == best.length && !better(s, best[count - 1])) return count;
+        int pos = count == best.length ? count - 1 : count++;
+        while (pos > 0 && better(s, best[pos - 1])) {
+            best[pos] = best[pos - 1];
+            pos--;
+        }
+        best[pos] = s;
+        return count;
+    }
+
+    private boolean better(int a, int b) {
+        if (popularity[a] != popularity[b]) return popularity[a] > popularity[b];
+        return folded[a].length() < folded[b].length();
+    }
+
+    private int lowerBound(String prefix) {
+        int lo = 0, hi = entries.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            String f = folded[(int) (entries[mid] >>> 32)];
+            int off = (int) entries[mid];
+            if (compareRegion(f, off, prefix, 0) < 0) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    private static int compareSuffix(String[] folded, long a, long b) {
+        return compareRegion(folded[(int) (a >>> 32)], (int) a, folded[(int) (b >>> 32)], (int) b);
+    }
+
+    private static int compareRegion(String a, int ao, String b, int bo) {
+        int n = Math.min(a.length() - ao, b.length() - bo);
+        for (int i = 0; i < n; i++) {
+            char ca = a.charAt(ao + i), cb = b.charAt(bo + i);
+            if (ca != cb) return ca - cb;
+        }
+        return (a.length() - ao) - (b.length() - bo);
+    }
+
+    private static int add(List<String> texts, List<String> types, List<Integer> ids, List<Long> pops,
+                           String type, String text, int id, long views) {
+        texts.add(text);
+        types.add(type);
+        ids.add(id);
+        pops.add(views);
+        return texts.size() - 1;
+    }
+
+    private static int wordStarts(String f) {
+        int n = 0;
+        for (int off = 0; off < f.length(); off++) if (off == 0 || f.charAt(off - 1) == ' ') n++;
+        return n;
+    }
+
+    /** Termes repliés séparés par une espace ("L'Été indien" → "l ete indien"). */
+    static String fold(String text) {
+        return String.join(" ", VideoSearchIndex.tokenize(text));
+    }
+
+    public int size()        { return texts.length; }
+    public int entryCount()  { return entries.length; }
+}
@@ -0,0 +1,238 @@
+package db;
+
+import common.AppConfig;
+import common.AppLogger;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Rétention de view_events : la base ne garde que les views.retention.days derniers
+ * jours. Toutes les views.archive.interval.ms, chaque jour entier plus ancien est
+ * écrit dans {views.archive.dir}/view_events-AAAA-MM-JJ.csv.gz puis supprimé, le plus
+ * ancien d'abord. Les statistiques lisent view_stats_*, que l'archivage ne touche pas.
+ *
+ * Le fichier est complet (écrit puis renommé) avant la suppression, faite en une
+ * transaction : après un arrêt entre les deux, le jour est réécrit depuis la base au
+ * passage suivant. Les vues sont horodatées à leur écriture, un jour archivé ne
+ * reçoit plus de lignes.
+ *
+ * export() relit les jours demandés dans les archives, sinon dans la base.
+ */
+public final class ViewArchiver {
+
+    private static final String COMPONENT = "ViewArchiver";
+    private static final ViewArchiver INSTANCE = new ViewArchiver();
+    private static final long START_DELAY_MS = 60_000;
+    private static final String CSV_HEADER = "video_id,client_ip_hash,bytes_served,viewed_at";
+
+    private static final String OLDEST_BEFORE = "SELECT MIN(viewed_at) FROM view_events WHERE viewed_at < ?";
+    private static final String SELECT_RANGE =
+        "SELECT video_id, client_ip_hash, bytes_served, viewed_at FROM view_events "
+        + "WHERE viewed_at >= ? AND viewed_at < ? ORDER BY viewed_at";
+    private static final String SELECT_RANGE_VIDEO =
+        "SELECT video_id, client_ip_hash, bytes_served, viewed_at FROM view_events "
+        + "WHERE video_id = ? AND viewed_at >= ? AND viewed_at < ? ORDER BY viewed_at";
+    private static final String DELETE_RANGE = "DELETE FROM view_events WHERE viewed_at >= ? AND viewed_at < ?";
+
+    private final int retentionDays;
+    private final Path dir;
+    private final AtomicLong archivedDays = new AtomicLong();
+    private final AtomicLong archivedRows = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private volatile long lastRunMs;
+    private ScheduledExecutorService scheduler;
+
+    private ViewArchiver() {
+        AppConfig cfg = AppConfig.get();
+        this.retentionDays = cfg.getViewsRetentionDays();
+        this.dir = Paths.get(cfg.getViewsArchiveDir());
+    }
+
+    public static ViewArchiver get() {
+        return INSTANCE;
+    }
+
+    /** Planifie l'archivage (appelé une fois au démarrage de l'API admin). */
+    public synchronized void start() {
+        if (scheduler != null) return;
+        if (retentionDays == 0) {
+            AppLogger.info(COMPONENT, "Rétention désactivée (views.retention.days=0)");
+            return;
+        }
+        long period = AppConfig.get().getViewsArchiveIntervalMs();
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "view-archiver");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::archiveExpired, START_DELAY_MS, period, TimeUnit.MILLISECONDS);
+        AppLogger.info(COMPONENT, "Rétention view_events: " + retentionDays + " jours, archives dans " + dir.toAbsolutePath());
+    }
+
+    /** Archive puis supprime chaque jour antérieur à la fenêtre de rétention. */
+    public synchronized void archiveExpired() {
+        if (retentionDays == 0) return;
+        long start = System.currentTimeMillis();
+        Timestamp cutoff = Timestamp.valueOf(LocalDate.now().minusDays(retentionDays).atStartOfDay());
+        int days = 0;
+        long rows = 0;
+        try {
+            Files.createDirectories(dir);
+            LocalDate day;
+            while ((day = oldestDayBefore(cutoff)) != null) {
+                rows += archiveDay(day);
+                days++;
+            }
+        } catch (SQLException | IOException | RuntimeException e) {
+            failures.incrementAndGet();
+            AppLogger.warn(COMPONENT, "Archivage interrompu: " + e.getMessage());
+        }
+        lastRunMs = System.currentTimeMillis() - start;
+        if (days > 0) {
+            AppLogger.info(COMPONENT, days + " jour(s) archivé(s), " + rows + " vues en " + lastRunMs + " ms");
+        }
+    }
+
+    private LocalDate oldestDayBefore(Timestamp cutoff) throws SQLException {
+        try (Connection c = DatabaseManager.getInstance().getConnection();
+             PreparedStatement ps = c.prepareStatement(OLDEST_BEFORE)) {
+            ps.setTimestamp(1, cutoff);
+            try (ResultSet rs = ps.executeQuery()) {
+                Timestamp t = rs.next() ? rs.getTimestamp(1) : null;
+                return t == null ? null : t.toLocalDateTime().toLocalDate();
+            }
+        }
+    }
+
+    private long archiveDay(LocalDate day) throws SQLException, IOException {
+        Timestamp from = Timestamp.valueOf(day.atStartOfDay());
+        Timestamp to = Timestamp.valueOf(day.plusDays(1).atStartOfDay());
+        Path file = archiveFile(day);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        long rows;
+        try (Connection c = DatabaseManager.getInstance().getConnection()) {
+            try (Writer out = new BufferedWriter(new OutputStreamWriter(
+                     new GZIPOutputStream(Files.newOutputStream(tmp), 64 * 1024), StandardCharsets.UTF_8));
+                 PreparedStatement ps = c.prepareStatement(SELECT_RANGE)) {
+                ps.setTimestamp(1, from);
+                ps.setTimestamp(2, to);
+                ps.setFetchSize(1000);
+                out.write(CSV_HEADER);
+                out.write('\n');
+                rows = writeRows(ps, out);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            c.setAutoCommit(false);
+            try (PreparedStatement del = c.prepareStatement(DELETE_RANGE)) {
+                del.setTimestamp(1, from);
+                del.setTimestamp(2, to);
+                del.executeUpdate();
+                c.commit();
+            } catch (SQLException e) {
+                c.rollback();
+                throw e;
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        archivedDays.incrementAndGet();
+        archivedRows.addAndGet(rows);
+        return rows;
+    }
+
+    /**
+     * Écrit en CSV les vues des jours from..to inclus (videoId null = toutes),
+     * depuis les archives pour les jours archivés, sinon depuis view_events.
+     */
+    public long export(LocalDate from, LocalDate to, Integer videoId, Writer out) throws IOException, SQLException {
+        out.write(CSV_HEADER);
+        out.write('\n');
+        long rows = 0;
+        for (LocalDate day = from; !day.isAfter(to); day = day.plusDays(1)) {
+            Path file = archiveFile(day);
+            rows += Files.exists(file) ? copyArchive(file, videoId, out) : exportFromDatabase(day, videoId, out);
+        }
+        out.flush();
+        return rows;
+    }
+
+    private static long copyArchive(Path file, Integer videoId, Writer out) throws IOException {
+        String prefix = videoId == null ? null : videoId + ",";
+        long rows = 0;
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                 new GZIPInputStream(Files.newInputStream(file), 64 * 1024), StandardCharsets.UTF_8))) {
+            in.readLine(); // en-tête
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (prefix != null && !line.startsWith(prefix)) continue;
+                out.write(line);
+                out.write('\n');
+                rows++;
+            }
+        }
+        return rows;
+    }
+
+    private static long exportFromDatabase(LocalDate day, Integer videoId, Writer out) throws SQLException, IOException {
+        try (Connection c = DatabaseManager.getInstance().getConnection();
+             PreparedStatement ps = c.prepareStatement(videoId == null ? SELECT_RANGE : SELECT_RANGE_VIDEO)) {
+            int i = 1;
+            if (videoId != null) ps.setInt(i++, videoId);
+            ps.setTimestamp(i++, Timestamp.valueOf(day.atStartOfDay()));
+            ps.setTimestamp(i, Timestamp.valueOf(day.plusDays(1).atStartOfDay()));
+            ps.setFetchSize(1000);
+            return writeRows(ps, out);
+        }
+    }
+
+    private static long writeRows(PreparedStatement ps, Writer out) throws SQLException, IOException {
+        long rows = 0;
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                String hash = rs.getString(2);
+                out.write(Integer.toString(rs.getInt(1)));
+                out.write(',');
+                if (hash != null) out.write(hash);
+                out.write(',');
+                out.write(Long.toString(rs.getLong(3)));
+                out.write(',');
+                out.write(rs.getTimestamp(4).toLocalDateTime().toString());
+                out.write('\n');
+                rows++;
+            }
+        }
+        return rows;
+    }
+
+    private Path archiveFile(LocalDate day) {
+        return dir.resolve("view_events-" + day + ".csv.gz");
+    }
+
+    public int  getRetentionDays() { return retentionDays; }
+    public long getArchivedDays()  { return archivedDays.get(); }
+    public long getArchivedRows()  { return archivedRows.get(); }
+    public long getFailures()      { return failures.get(); }
+    public long getLastRunMs()     { return lastRunMs; }
+}
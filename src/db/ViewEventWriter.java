@@ -0,0 +1,439 @@
+package db;
+
+import common.AppConfig;
+import common.AppLogger;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Écriture groupée des vues : les flux déposent leurs événements dans une file
+ * bornée (views.writer.queue.capacity), un thread unique les écrit par lots JDBC
+ * dans une seule transaction. Un lot part dès views.writer.batch.size événements
+ * ou après views.writer.flush.ms. Les view_count sont tenus par VideoCounters.
+ *
+ * La même transaction met à jour les agrégats view_stats_hourly / view_stats_daily
+ * (vues, octets, spectateurs uniques par vidéo et par heure / jour) et view_site_hourly
+ * (spectateurs uniques du site par heure) que lisent les statistiques, sans parcourir
+ * view_events. Les spectateurs déjà comptés des périodes
+ * closes sont purgés toutes les VIEWER_PRUNE_INTERVAL_MS.
+ *
+ * File pleine : l'appelant attend au plus views.writer.offer.timeout.ms (0 = jamais,
+ * conseillé avec le moteur NIO), puis l'événement est abandonné et compté. Un lot
+ * en échec est retenté une fois, puis seules les vues de vidéos supprimées (ou les
+ * lignes qui échouent seules) sont abandonnées. La file est vidée à l'arrêt de la JVM,
+ * par le hook de DatabaseManager, avant la fermeture de la base.
+ */
+public final class ViewEventWriter {
+
+    private static final String COMPONENT = "ViewEventWriter";
+    private static final ViewEventWriter INSTANCE = new ViewEventWriter();
+
+    private static final long VIEWER_PRUNE_INTERVAL_MS = 10 * 60_000;
+    private static final String PRUNE_HOURLY_VIEWERS = "DELETE FROM view_viewers_hourly WHERE hour_start < ?";
+    private static final String PRUNE_DAILY_VIEWERS = "DELETE FROM view_viewers_daily WHERE view_date < ?";
+    private static final String PRUNE_SITE_VIEWERS = "DELETE FROM view_site_viewers_hourly WHERE hour_start < ?";
+
+    // Spectateurs uniques du site par heure : updateCount 1 = IP nouvelle pour l'heure, toutes vidéos confondues
+    private static final String INSERT_SITE_VIEWER =
+        "INSERT INTO view_site_viewers_hourly (hour_start, client_ip_hash) "
+        + "SELECT CAST(? AS TIMESTAMP), CAST(? AS VARCHAR(64)) WHERE NOT EXISTS ("
+        + "SELECT 1 FROM view_site_viewers_hourly WHERE hour_start=? AND client_ip_hash=?)";
+    private static final String MERGE_SITE_STATS =
+        "MERGE INTO view_site_hourly t USING (VALUES (CAST(? AS TIMESTAMP), CAST(? AS INTEGER))) s(hour_start, uniques) "
+        + "ON t.hour_start = s.hour_start "
+        + "WHEN MATCHED THEN UPDATE SET unique_viewers = t.unique_viewers + s.uniques "
+        + "WHEN NOT MATCHED THEN INSERT (hour_start, unique_viewers) VALUES (s.hour_start, s.uniques)";
+
+    private static final String INSERT_EVENT =
+        "INSERT INTO view_events (video_id, client_ip_hash, bytes_served, viewed_at) VALUES (?,?,?,?)";
+
+    private record ViewEvent(int videoId, String clientIpHash, long bytesServed, long viewedAt) {}
+
+    /** Réveille le thread d'écriture à l'arrêt, sans attendre la fin de son poll. */
+    private static final ViewEvent STOP = new ViewEvent(0, null, 0, 0);
+
+    /** Granularité d'agrégat : table des compteurs, table des spectateurs déjà comptés, colonne de période. */
+    private enum Rollup {
+        HOURLY("view_stats_hourly", "view_viewers_hourly", "hour_start", "TIMESTAMP"),
+        DAILY("view_stats_daily", "view_viewers_daily", "view_date", "DATE");
+
+        final String insertViewer;
+        final String mergeStats;
+
+        Rollup(String stats, String viewers, String period, String sqlType) {
+            // updateCount 1 = spectateur nouveau pour cette période
+            this.insertViewer = "INSERT INTO " + viewers + " (video_id, " + period + ", client_ip_hash) "
+                + "SELECT CAST(? AS INTEGER), CAST(? AS " + sqlType + "), CAST(? AS VARCHAR(64)) WHERE NOT EXISTS ("
+                + "SELECT 1 FROM " + viewers + " WHERE video_id=? AND " + period + "=? AND client_ip_hash=?)";
+            this.mergeStats = "MERGE INTO " + stats + " t USING (VALUES (CAST(? AS INTEGER), CAST(? AS " + sqlType
+                + "), CAST(? AS BIGINT), CAST(? AS BIGINT), CAST(? AS INTEGER))) s(video_id, period, views, bytes, uniques) "
+                + "ON t.video_id = s.video_id AND t." + period + " = s.period "
+                + "WHEN MATCHED THEN UPDATE SET views = t.views + s.views, bytes_served = t.bytes_served + s.bytes, "
+                + "unique_viewers = t.unique_viewers + s.uniques "
+                + "WHEN NOT MATCHED THEN INSERT (video_id, " + period + ", views, bytes_served, unique_viewers) "
+                + "VALUES (s.video_id, s.period, s.views, s.bytes, s.uniques)";
+        }
+
+        /** Début de la période contenant l'instant, dans le fuseau de la JVM (comme CURRENT_TIMESTAMP). */
+        Object period(long epochMillis) {
+            LocalDateTime t = LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
+            return this == HOURLY ? Timestamp.valueOf(t.truncatedTo(ChronoUnit.HOURS)) : Date.valueOf(t.toLocalDate());
+        }
+    }
+
+    private record BucketKey(int videoId, Object period) {}
+
+    private static final class Bucket {
+        long views;
+        long bytes;
+        int uniques;
+        final Set<String> viewers = new HashSet<>();
+    }
+
+    private final BlockingQueue<ViewEvent> queue;
+    private final int batchSize;
+    private final long flushNanos;
+    private final long offerTimeoutMs;
+
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    private long nextViewerPrune;
+    private volatile boolean running;
+    private volatile Thread writer;
+
+    private ViewEventWriter() {
+        AppConfig cfg = AppConfig.get();
+        this.queue = new ArrayBlockingQueue<>(cfg.getViewsWriterQueueCapacity());
+        this.batchSize = cfg.getViewsWriterBatchSize();
+        this.flushNanos = TimeUnit.MILLISECONDS.toNanos(cfg.getViewsWriterFlushMs());
+        this.offerTimeoutMs = cfg.getViewsWriterOfferTimeoutMs();
+    }
+
+    public static ViewEventWriter get() {
+        return INSTANCE;
+    }
+
+    /** Ajoute une ligne view_events au prochain lot. */
+    public void recordView(int videoId, String clientIpHash, long bytesServed) {
+        ViewEvent event = new ViewEvent(videoId, clientIpHash, bytesServed, System.currentTimeMillis());
+        if (writer == null) ensureStarted();
+        boolean queued;
+        try {
+            queued = offerTimeoutMs > 0
+                ? queue.offer(event, offerTimeoutMs, TimeUnit.MILLISECONDS)
+                : queue.offer(event);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            queued = false;
+        }
+        if (!queued && dropped.incrementAndGet() % 1000 == 1) {
+            AppLogger.warn(COMPONENT, "File des vues pleine, événements abandonnés: " + dropped.get());
+        }
+    }
+
+    private synchronized void ensureStarted() {
+        if (writer != null) return;
+        running = true;
+        writer = new Thread(this::run, "view-event-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /** Arrête l'écriture après avoir vidé la file (hook d'arrêt de DatabaseManager). */
+    public void close() {
+        Thread t;
+        synchronized (this) {
+            t = writer;
+            running = false;
+        }
+        if (t == null) return;
+        // File pleine : le thread n'attend pas, il verra running=false au prochain tour
+        queue.offer(STOP);
+        try {
+            t.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        List<ViewEvent> batch = new ArrayList<>(batchSize);
+        long firstWaitMs = Math.max(1, TimeUnit.NANOSECONDS.toMillis(flushNanos));
+        while (running) {
+            try {
+                // Attend le premier événement, puis complète le lot jusqu'à l'échéance.
+                // Pas d'interruption à l'arrêt : H2 ferme sa base si un thread est interrompu en I/O.
+                ViewEvent first = queue.poll(firstWaitMs, TimeUnit.MILLISECONDS);
+                if (first == null || first == STOP) continue;
+                batch.add(first);
+                long deadline = System.nanoTime() + flushNanos;
+                while (batch.size() < batchSize) {
+                    long wait = deadline - System.nanoTime();
+                    if (wait <= 0) break;
+                    ViewEvent next = queue.poll(wait, TimeUnit.NANOSECONDS);
+                    if (next == null || next == STOP) break;
+                    batch.add(next);
+                    queue.drainTo(batch, batchSize - batch.size());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            batch.removeIf(e -> e == STOP);
+            flush(batch);
+        }
+        // Arrêt : écrit ce qui reste dans la file
+        queue.drainTo(batch);
+        batch.removeIf(e -> e == STOP);
+        while (!batch.isEmpty()) {
+            List<ViewEvent> chunk = new ArrayList<>(batch.subList(0, Math.min(batchSize, batch.size())));
+            batch.subList(0, chunk.size()).clear();
+            flush(chunk);
+        }
+        AppLogger.info(COMPONENT, "Arrêt: " + written.get() + " vues écrites, " + dropped.get() + " abandonnées");
+    }
+
+    private void flush(List<ViewEvent> batch) {
+        if (batch.isEmpty()) return;
+        try {
+            write(batch);
+        } catch (SQLException first) {
+            try {
+                write(batch);
+            } catch (SQLException e) {
+                salvage(batch, e);
+            }
+        }
+        batch.clear();
+    }
+
+    /**
+     * Lot refusé deux fois : le plus souvent une vidéo supprimée entre le visionnage et
+     * l'écriture (clé étrangère). Seules les vues de vidéos disparues sont abandonnées, le
+     * reste est réécrit, puis ligne par ligne si le lot échoue encore. Base injoignable
+     * (la vérification échoue aussi) : le lot entier est abandonné, comme avant.
+     */
+    private void salvage(List<ViewEvent> batch, SQLException cause) {
+        List<ViewEvent> kept;
+        try {
+            kept = withExistingVideos(batch);
+        } catch (SQLException e) {
+            failures.incrementAndGet();
+            dropped.addAndGet(batch.size());
+            AppLogger.warn(COMPONENT, "Lot de " + batch.size() + " vues perdu: " + cause.getMessage());
+            return;
+        }
+        int orphans = batch.size() - kept.size();
+        if (orphans > 0) {
+            dropped.addAndGet(orphans);
+            AppLogger.info(COMPONENT, orphans + " vue(s) de vidéos supprimées abandonnée(s)");
+            if (kept.isEmpty()) return;
+            try {
+                write(kept);
+                return;
+            } catch (SQLException e) {
+                cause = e;
+            }
+        }
+        int lost = 0;
+        for (ViewEvent e : kept) {
+            try {
+                write(List.of(e));
+            } catch (SQLException rowError) {
+                lost++;
+                cause = rowError;
+            }
+        }
+        if (lost > 0) {
+            failures.incrementAndGet();
+            dropped.addAndGet(lost);
+            AppLogger.warn(COMPONENT, lost + " vue(s) sur " + kept.size() + " perdue(s) ligne par ligne: " + cause.getMessage());
+        }
+    }
+
+    /** Événements du lot dont la vidéo existe encore. */
+    private static List<ViewEvent> withExistingVideos(List<ViewEvent> batch) throws SQLException {
+        Set<Integer> ids = new HashSet<>();
+        for (ViewEvent e : batch) ids.add(e.videoId());
+        Set<Integer> existing = new HashSet<>();
+        String marks = String.join(",", Collections.nCopies(ids.size(), "?"));
+        try (Connection c = DatabaseManager.getInstance().getConnection();
+             PreparedStatement ps = c.prepareStatement("SELECT id FROM videos WHERE id IN (" + marks + ")")) {
+            int i = 1;
+            for (Integer id : ids) ps.setInt(i++, id);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) existing.add(rs.getInt(1));
+            }
+        }
+        List<ViewEvent> kept = new ArrayList<>(batch.size());
+        for (ViewEvent e : batch) {
+            if (existing.contains(e.videoId())) kept.add(e);
+        }
+        return kept;
+    }
+
+    /** Un lot = une transaction d'inserts groupés. */
+    private void write(List<ViewEvent> batch) throws SQLException {
+        try (Connection c = DatabaseManager.getInstance().getConnection()) {
+            c.setAutoCommit(false);
+            try (PreparedStatement insert = c.prepareStatement(INSERT_EVENT)) {
+                for (ViewEvent e : batch) {
+                    insert.setInt(1, e.videoId());
+                    insert.setString(2, e.clientIpHash());
+                    insert.setLong(3, e.bytesServed());
+                    insert.setTimestamp(4, new Timestamp(e.viewedAt()));
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+                for (Rollup rollup : Rollup.values()) {
+                    applyRollup(c, rollup, batch);
+                }
+                applySiteViewers(c, batch);
+                pruneViewers(c);
+                c.commit();
+            } catch (SQLException e) {
+                c.rollback();
+                throw e;
+            }
+        }
+        written.addAndGet(batch.size());
+        batches.incrementAndGet();
+    }
+
+    /**
+     * Les événements arrivent quelques secondes après le visionnage : au-delà de deux
+     * heures (un jour), une période ne reçoit plus de vues et ses spectateurs sont oubliés.
+     */
+    private void pruneViewers(Connection c) throws SQLException {
+        long now = System.currentTimeMillis();
+        if (now < nextViewerPrune) return;
+        nextViewerPrune = now + VIEWER_PRUNE_INTERVAL_MS;
+        LocalDateTime current = LocalDateTime.now();
+        try (PreparedStatement hourly = c.prepareStatement(PRUNE_HOURLY_VIEWERS);
+             PreparedStatement site = c.prepareStatement(PRUNE_SITE_VIEWERS);
+             PreparedStatement daily = c.prepareStatement(PRUNE_DAILY_VIEWERS)) {
+            Timestamp closedHours = Timestamp.valueOf(current.truncatedTo(ChronoUnit.HOURS).minusHours(2));
+            hourly.setTimestamp(1, closedHours);
+            hourly.executeUpdate();
+            site.setTimestamp(1, closedHours);
+            site.executeUpdate();
+            daily.setDate(1, Date.valueOf(current.toLocalDate().minusDays(1)));
+            daily.executeUpdate();
+        }
+    }
+
+    /** Agrège le lot par (vidéo, période) puis incrémente les compteurs de la période. */
+    private static void applyRollup(Connection c, Rollup rollup, List<ViewEvent> batch) throws SQLException {
+        Map<BucketKey, Bucket> buckets = new LinkedHashMap<>();
+        for (ViewEvent e : batch) {
+            Bucket b = buckets.computeIfAbsent(new BucketKey(e.videoId(), rollup.period(e.viewedAt())), k -> new Bucket());
+            b.views++;
+            b.bytes += e.bytesServed();
+            if (e.clientIpHash() != null) b.viewers.add(e.clientIpHash());
+        }
+
+        try (PreparedStatement viewers = c.prepareStatement(rollup.insertViewer)) {
+            List<Bucket> order = new ArrayList<>();
+            for (Map.Entry<BucketKey, Bucket> entry : buckets.entrySet()) {
+                BucketKey key = entry.getKey();
+                for (String hash : entry.getValue().viewers) {
+                    viewers.setInt(1, key.videoId());
+                    viewers.setObject(2, key.period());
+                    viewers.setString(3, hash);
+                    viewers.setInt(4, key.videoId());
+                    viewers.setObject(5, key.period());
+                    viewers.setString(6, hash);
+                    viewers.addBatch();
+                    order.add(entry.getValue());
+                }
+            }
+            if (!order.isEmpty()) {
+                int[] counts = viewers.executeBatch();
+                for (int i = 0; i < counts.length; i++) {
+                    if (counts[i] > 0) order.get(i).uniques++;
+                }
+            }
+        }
+
+        try (PreparedStatement merge = c.prepareStatement(rollup.mergeStats)) {
+            for (Map.Entry<BucketKey, Bucket> entry : buckets.entrySet()) {
+                Bucket b = entry.getValue();
+                merge.setInt(1, entry.getKey().videoId());
+                merge.setObject(2, entry.getKey().period());
+                merge.setLong(3, b.views);
+                merge.setLong(4, b.bytes);
+                merge.setInt(5, b.uniques);
+                merge.addBatch();
+            }
+            merge.executeBatch();
+        }
+    }
+
+    /** Spectateurs uniques par heure sur l'ensemble du site (view_site_hourly), à côté des agrégats par vidéo. */
+    private static void applySiteViewers(Connection c, List<ViewEvent> batch) throws SQLException {
+        Map<Object, Set<String>> byHour = new LinkedHashMap<>();
+        for (ViewEvent e : batch) {
+            if (e.clientIpHash() != null) {
+                byHour.computeIfAbsent(Rollup.HOURLY.period(e.viewedAt()), k -> new HashSet<>()).add(e.clientIpHash());
+            }
+        }
+        if (byHour.isEmpty()) return;
+
+        Map<Object, Integer> uniques = new LinkedHashMap<>();
+        try (PreparedStatement viewers = c.prepareStatement(INSERT_SITE_VIEWER)) {
+            List<Object> order = new ArrayList<>();
+            for (Map.Entry<Object, Set<String>> entry : byHour.entrySet()) {
+                for (String hash : entry.getValue()) {
+                    viewers.setObject(1, entry.getKey());
+                    viewers.setString(2, hash);
+                    viewers.setObject(3, entry.getKey());
+                    viewers.setString(4, hash);
+                    viewers.addBatch();
+                    order.add(entry.getKey());
+                }
+            }
+            int[] counts = viewers.executeBatch();
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] > 0) uniques.merge(order.get(i), 1, Integer::sum);
+            }
+        }
+        if (uniques.isEmpty()) return;
+
+        try (PreparedStatement merge = c.prepareStatement(MERGE_SITE_STATS)) {
+            for (Map.Entry<Object, Integer> entry : uniques.entrySet()) {
+                merge.setObject(1, entry.getKey());
+                merge.setInt(2, entry.getValue());
+                merge.addBatch();
+            }
+            merge.executeBatch();
+        }
+    }
+
+    public int  getQueued()   { return queue.size(); }
+    public long getWritten()  { return written.get(); }
+    public long getDropped()  { return dropped.get(); }
+    public long getBatches()  { return batches.get(); }
+    public long getFailures() { return failures.get(); }
+}
@@ -73,8 +73,14 @@ public final class VideoInfo implements Serializable {
     public String getTags()              { return tags; }
     public int    getViewCount()         { return viewCount; }
     public int    getDatabaseId()        { return databaseId; }
-    public String getStreamUrl()         { return "http://" + host + ":" + port; }
-    public String getThumbnailUrl()      { return "http://" + host + ":" + port + "/thumbnail"; }
+    /** /v/{id}/stream quand l'identifiant est connu (port partagé possible), sinon racine du port dédié */
+    public String getStreamUrl()         { return baseUrl() + (databaseId > 0 ? "/stream" : ""); }
+    public String getThumbnailUrl()      { return baseUrl() + "/thumbnail"; }
+
+    private String baseUrl() {
+        String base = "http://" + host + ":" + port;
+        return databaseId > 0 ? base + "/v/" + databaseId : base;
+    }
 
     @Override
     public String toString() {
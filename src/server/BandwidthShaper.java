@@ -0,0 +1,275 @@
+package server;
+
+import common.AppConfig;
+import common.AppLogger;
+import db.SettingsRepository;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limitation du débit sortant par seaux à jetons, à quatre niveaux : global,
+ * par titre, par IP et par connexion. Le débit d'une connexion est le plus petit
+ * de bitrate du titre × shaping.pace.factor et du débit du forfait
+ * (shaping.plan.{forfait}.kbps, « anonymous » pour le streaming public) ; elle
+ * démarre avec une avance de shaping.burst.seconds pour un démarrage rapide.
+ *
+ * Les boucles d'envoi appellent charge() après chaque écriture et attendent le
+ * délai retourné (sommeil en bloquant, réveil différé en NIO). Les seaux sont
+ * sans verrou (un AtomicLong par seau). Débits en kbit/s, 0 = illimité ; valeurs
+ * de application.properties, remplacées à chaud par app_settings (relues toutes
+ * les RELOAD_INTERVAL_MS, ou immédiatement via reload()).
+ */
+public final class BandwidthShaper {
+    private static final String LOG = "BandwidthShaper";
+    private static final BandwidthShaper INSTANCE = new BandwidthShaper();
+    private static final long RELOAD_INTERVAL_MS = 10_000;
+    /** Avance des seaux partagés (global, titre, IP), en secondes de leur débit. */
+    private static final long SHARED_BURST_SECONDS = 1;
+    public static final String PLAN_ANONYMOUS = "anonymous";
+
+    private volatile Rates rates;
+    private volatile long nextReload;
+    private final AtomicBoolean reloading = new AtomicBoolean();
+
+    private final TokenBucket global = new TokenBucket();
+    private final Map<String, Shared> titles = new ConcurrentHashMap<>();
+    private final Map<String, Shared> ips = new ConcurrentHashMap<>();
+
+    private final AtomicInteger sessions = new AtomicInteger();
+    private final AtomicLong delayedWrites = new AtomicLong();
+    private final AtomicLong delayedNanos = new AtomicLong();
+
+    private BandwidthShaper() {
+        apply(Rates.load(Map.of()));
+        nextReload = 0; // app_settings lu au premier flux
+    }
+
+    public static BandwidthShaper get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Ouvre la limitation d'un flux ; null si la limitation est désactivée.
+     * titleKey regroupe les connexions d'un même titre, bitrateKbps = 0 s'il est inconnu.
+     */
+    public Session open(String clientIp, String titleKey, String plan, int bitrateKbps) {
+        reloadIfDue();
+        Rates r = rates;
+        if (!r.enabled) return null;
+
+        long paceKbps = r.paceFactor > 0 && bitrateKbps > 0 ? Math.round(bitrateKbps * r.paceFactor) : 0;
+        long planKbps = r.planKbps(plan == null ? PLAN_ANONYMOUS : plan);
+        long connectionKbps = paceKbps == 0 ? planKbps : planKbps == 0 ? paceKbps : Math.min(paceKbps, planKbps);
+
+        TokenBucket connection = new TokenBucket();
+        connection.setRate(connectionKbps, r.burstSeconds);
+        sessions.incrementAndGet();
+        return new Session(connection, titleKey, acquire(titles, titleKey, r.titleKbps),
+            clientIp, acquire(ips, clientIp, r.ipKbps));
+    }
+
+    /** Relit immédiatement les débits (après une modification depuis le panel admin). */
+    public void reload() {
+        apply(Rates.load(new SettingsRepository().findAll()));
+    }
+
+    private void reloadIfDue() {
+        long now = System.currentTimeMillis();
+        if (now < nextReload || !reloading.compareAndSet(false, true)) return;
+        nextReload = now + RELOAD_INTERVAL_MS;
+        // Requête H2 hors du thread appelant (boucle NIO possible)
+        Thread.ofVirtual().name("shaping-reload").start(() -> {
+            try {
+                reload();
+            } catch (RuntimeException e) {
+                AppLogger.warn(LOG, "Relecture des débits impossible: " + e.getMessage());
+            } finally {
+                reloading.set(false);
+            }
+        });
+    }
+
+    private void apply(Rates r) {
+        Rates previous = rates;
+        rates = r;
+        nextReload = System.currentTimeMillis() + RELOAD_INTERVAL_MS;
+        global.setRate(r.globalKbps, SHARED_BURST_SECONDS);
+        titles.values().forEach(s -> s.bucket.setRate(r.titleKbps, SHARED_BURST_SECONDS));
+        ips.values().forEach(s -> s.bucket.setRate(r.ipKbps, SHARED_BURST_SECONDS));
+        if (previous != null && !previous.equals(r)) {
+            AppLogger.info(LOG, "Débits mis à jour: " + r);
+        }
+    }
+
+    private static Shared acquire(Map<String, Shared> map, String key, long kbps) {
+        return map.compute(key, (k, s) -> {
+            if (s == null) {
+                s = new Shared();
+                s.bucket.setRate(kbps, SHARED_BURST_SECONDS);
+            }
+            s.refs++;
+            return s;
+        });
+    }
+
+    private static void release(Map<String, Shared> map, String key) {
+        map.computeIfPresent(key, (k, s) -> --s.refs <= 0 ? null : s);
+    }
+
+    public int  getSessions()       { return sessions.get(); }
+    public long getDelayedWrites()  { return delayedWrites.get(); }
+    public long getDelayedMillis()  { return TimeUnit.NANOSECONDS.toMillis(delayedNanos.get()); }
+    public long getGlobalKbps()     { return rates.globalKbps; }
+    public long getTitleKbps()      { return rates.titleKbps; }
+    public long getIpKbps()         { return rates.ipKbps; }
+    public double getPaceFactor()   { return rates.paceFactor; }
+    public boolean isEnabled()      { return rates.enabled; }
+
+    /** Limitation d'un flux : seau de la connexion + seaux partagés du titre, de l'IP et global. */
+    public final class Session implements AutoCloseable {
+        private final TokenBucket connection;
+        private final String titleKey;
+        private final Shared title;
+        private final String clientIp;
+        private final Shared ip;
+        private boolean closed;
+
+        private Session(TokenBucket connection, String titleKey, Shared title, String clientIp, Shared ip) {
+            this.connection = connection;
+            this.titleKey = titleKey;
+            this.title = title;
+            this.clientIp = clientIp;
+            this.ip = ip;
+        }
+
+        /** Au moins un seau limite ce flux (sinon l'envoi n'a pas à être découpé). */
+        public boolean limited() {
+            return connection.limited() || title.bucket.limited() || ip.bucket.limited() || global.limited();
+        }
+
+        /**
+         * Décompte bytes octets envoyés ; retourne le délai (ns) à respecter avant
+         * l'écriture suivante, 0 si le flux peut continuer.
+         */
+        public long charge(long bytes) {
+            if (bytes <= 0) return 0;
+            long now = System.nanoTime();
+            long delay = connection.consume(bytes, now);
+            delay = Math.max(delay, title.bucket.consume(bytes, now));
+            delay = Math.max(delay, ip.bucket.consume(bytes, now));
+            delay = Math.max(delay, global.consume(bytes, now));
+            if (delay > 0) {
+                delayedWrites.incrementAndGet();
+                delayedNanos.addAndGet(delay);
+            }
+            return delay;
+        }
+
+        /** charge() puis attente du délai, pour les boucles d'envoi bloquantes. */
+        public void throttle(long bytes) throws InterruptedIOException {
+            long delay = charge(bytes);
+            if (delay <= 0) return;
+            try {
+                TimeUnit.NANOSECONDS.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Envoi interrompu");
+            }
+        }
+
+        @Override
+        public synchronized void close() {
+            if (closed) return;
+            closed = true;
+            sessions.decrementAndGet();
+            release(titles, titleKey);
+            release(ips, clientIp);
+        }
+    }
+
+    /**
+     * Seau à jetons sans verrou (algorithme GCRA) : tat est l'instant où le seau
+     * serait de nouveau plein. Consommer avance tat du coût des octets ; le retard
+     * de tat sur maintenant, au-delà de l'avance autorisée, est le délai à respecter.
+     */
+    static final class TokenBucket {
+        private final AtomicLong tat = new AtomicLong(Long.MIN_VALUE / 2);
+        private volatile double nanosPerByte;
+        private volatile long burstNanos;
+
+        void setRate(long kbps, long burstSeconds) {
+            nanosPerByte = kbps <= 0 ? 0 : 1e9 / (kbps * 125.0);
+            burstNanos = TimeUnit.SECONDS.toNanos(Math.max(0, burstSeconds));
+        }
+
+        boolean limited() {
+            return nanosPerByte > 0;
+        }
+
+        long consume(long bytes, long now) {
+            double npb = nanosPerByte;
+            if (npb == 0) return 0;
+            long burst = burstNanos;
+            long cost = (long) (bytes * npb);
+            while (true) {
+                long current = tat.get();
+                long next = Math.max(current, now) + cost;
+                if (tat.compareAndSet(current, next)) {
+                    return Math.max(0, next - now - burst);
+                }
+            }
+        }
+    }
+
+    private static final class Shared {
+        final TokenBucket bucket = new TokenBucket();
+        int refs; // modifié sous compute() de la map
+    }
+
+    /** Débits effectifs : application.properties puis app_settings. */
+    private record Rates(boolean enabled, long globalKbps, long titleKbps, long ipKbps,
+                         double paceFactor, long burstSeconds, Map<String, Long> plans) {
+
+        static Rates load(Map<String, String> settings) {
+            AppConfig cfg = AppConfig.get();
+            Map<String, Long> plans = new ConcurrentHashMap<>();
+            for (String plan : new String[] {PLAN_ANONYMOUS, "free", "trial", "monthly", "annual"}) {
+                plans.put(plan, (long) cfg.getShapingPlanKbps(plan));
+            }
+            settings.forEach((key, value) -> {
+                if (key.startsWith("shaping.plan.") && key.endsWith(".kbps")) {
+                    String plan = key.substring("shaping.plan.".length(), key.length() - ".kbps".length());
+                    plans.put(plan, parseLong(value, 0));
+                }
+            });
+            String enabled = settings.get("shaping.enabled");
+            return new Rates(
+                enabled == null ? cfg.isShapingEnabled() : "true".equalsIgnoreCase(enabled.trim()),
+                parseLong(settings.get("shaping.global.kbps"), cfg.getShapingGlobalKbps()),
+                parseLong(settings.get("shaping.title.kbps"), cfg.getShapingTitleKbps()),
+                parseLong(settings.get("shaping.ip.kbps"), cfg.getShapingIpKbps()),
+                parseDouble(settings.get("shaping.pace.factor"), cfg.getShapingPaceFactor()),
+                parseLong(settings.get("shaping.burst.seconds"), cfg.getShapingBurstSeconds()),
+                Map.copyOf(plans));
+        }
+
+        long planKbps(String plan) {
+            return plans.getOrDefault(plan, 0L);
+        }
+
+        private static long parseLong(String value, long fallback) {
+            if (value == null || value.isBlank()) return fallback;
+            try { return Math.max(0, Long.parseLong(value.trim())); } catch (NumberFormatException e) { return fallback; }
+        }
+
+        private static double parseDouble(String value, double fallback) {
+            if (value == null || value.isBlank()) return fallback;
+            try { return Math.max(0, Double.parseDouble(value.trim())); } catch (NumberFormatException e) { return fallback; }
+        }
+    }
+}
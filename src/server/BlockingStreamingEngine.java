@@ -0,0 +1,285 @@
+package server;
+
+import common.AppConfig;
+import common.AppLogger;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moteur HTTP bloquant (streaming.engine=blocking) : un thread par connexion,
+ * système ou virtuel selon http.executor, sous admission bornée (http.max.inflight).
+ * La logique HTTP (routes, Range, en-têtes, stats) reste dans StreamingServer.
+ */
+final class BlockingStreamingEngine {
+
+    private static final String LOG = "StreamingServer";
+    private static final int BUFFER_SIZE = 65536; // 64KB for better throughput
+    private static final int SHAPED_CHUNK = 65536;
+
+    private final StreamSite site;
+    private final int port;
+    private final boolean zeroCopy;
+    private final int keepAliveTimeoutMs;
+    private final int keepAliveMaxRequests;
+    private final int maxHeaderBytes;
+
+    private volatile boolean running;
+    private ServerSocketChannel serverChannel;
+    private ExecutorService pool;
+    private ConnectionExecutors.Admission admission;
+
+    BlockingStreamingEngine(StreamSite site, int port) {
+        this.site = site;
+        this.port = port;
+        AppConfig cfg = AppConfig.get();
+        this.zeroCopy = cfg.isStreamingZeroCopy();
+        this.keepAliveTimeoutMs = cfg.getStreamingKeepAliveTimeoutMs();
+        this.keepAliveMaxRequests = cfg.getStreamingKeepAliveMaxRequests();
+        this.maxHeaderBytes = cfg.getStreamingMaxHeaderBytes();
+    }
+
+    /** Ouvre le port et démarre la boucle d'acceptation. Lève IOException si le bind échoue. */
+    void start() throws IOException {
+        // Canal bloquant : les sockets acceptées exposent un SocketChannel (transferTo)
+        serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.bind(new InetSocketAddress(port));
+        } catch (IOException e) {
+            serverChannel.close();
+            throw e;
+        }
+        running = true;
+        admission = new ConnectionExecutors.Admission("streaming-" + port, AppConfig.get().getHttpMaxInFlight());
+        pool = ConnectionExecutors.newConnectionPool("streaming-" + port);
+        Thread serverThread = new Thread(this::acceptLoop, "streaming-server-" + port);
+        serverThread.setDaemon(true);
+        serverThread.start();
+        AppLogger.info(LOG, "En écoute port " + port + " — " + site.describe());
+    }
+
+    void stop() {
+        running = false;
+        try {
+            if (serverChannel != null) serverChannel.close();
+        } catch (IOException e) {
+            AppLogger.warn(LOG, "Erreur fermeture socket: " + e.getMessage());
+        } finally {
+            stopPool();
+        }
+    }
+
+    private void acceptLoop() {
+        try {
+            while (running) {
+                try {
+                    Socket clientSocket = serverChannel.accept().socket();
+                    if (!admission.tryAcquire()) {
+                        rejectBusy(clientSocket);
+                        continue;
+                    }
+                    pool.submit(() -> {
+                        try {
+                            handleClient(clientSocket);
+                        } finally {
+                            admission.release();
+                        }
+                    });
+                } catch (IOException e) {
+                    if (running) AppLogger.warn(LOG, "Erreur acceptation: " + e.getMessage());
+                }
+            }
+        } finally {
+            stopPool();
+        }
+    }
+
+    private void handleClient(Socket clientSocket) {
+        StreamSession session = new StreamSession(site, clientSocket.getInetAddress().getHostAddress());
+
+        // Rate limiting
+        if (!session.open()) {
+            try {
+                OutputStream out = clientSocket.getOutputStream();
+                out.write(StreamingServer.errorResponse(429, "Too Many Requests"));
+                clientSocket.close();
+            } catch (IOException ignored) {}
+            return;
+        }
+
+        try (Socket socket = clientSocket;
+             InputStream in = socket.getInputStream();
+             OutputStream out = socket.getOutputStream()) {
+
+            socket.setSoTimeout(keepAliveTimeoutMs);
+            RequestReader reader = new RequestReader(maxHeaderBytes);
+            // Boucle keep-alive : les requêtes pipelinées restent dans le tampon du lecteur
+            // et sont traitées dans l'ordre, une réponse complète après l'autre.
+            for (int served = 0; ; served++) {
+                RequestHead head = reader.next(in);
+                if (head == null) break;
+
+                StreamingServer.StreamResponse response =
+                    session.respond(head, served + 1 < keepAliveMaxRequests);
+                out.write(response.header);
+                long sent = 0;
+                if (response.hasBody()) {
+                    sent = copyBody(socket, out, response, session.shaping());
+                    session.onSent(response, sent);
+                }
+                out.flush();
+                if (!response.keepAlive || sent < response.bodyLength) break;
+            }
+
+        } catch (IOException e) {
+            session.logIoError(e);
+        } finally {
+            session.release();
+        }
+    }
+
+    /** Serveur saturé : réponse courte depuis le thread d'acceptation, sans créer de thread. */
+    private static void rejectBusy(Socket clientSocket) {
+        try (Socket socket = clientSocket) {
+            socket.getOutputStream().write(StreamingServer.errorResponse(503, "Service Unavailable"));
+        } catch (IOException ignored) {}
+    }
+
+    /**
+     * Lecture des en-têtes par octets dans un tampon réutilisé pour toute la connexion :
+     * les octets qui suivent une requête (pipelining) y restent pour la suivante.
+     */
+    private static final class RequestReader {
+        private final byte[] buf;
+        private final RequestHead head = new RequestHead();
+        private int filled;
+        private int consumed;
+
+        private RequestReader(int maxHeaderBytes) {
+            this.buf = new byte[maxHeaderBytes];
+        }
+
+        /**
+         * Prochaine requête analysée, ou null si le client a fermé ou est resté
+         * inactif. Un en-tête plus grand que le tampon donne une requête en erreur 431.
+         */
+        RequestHead next(InputStream in) throws IOException {
+            if (consumed > 0) {
+                System.arraycopy(buf, consumed, buf, 0, filled - consumed);
+                filled -= consumed;
+                consumed = 0;
+            }
+            int scanned = 0;
+            int end;
+            while ((end = RequestHead.headerEnd(buf, scanned, filled)) < 0) {
+                if (filled == buf.length) {
+                    return head.reject(431);
+                }
+                scanned = filled;
+                int n;
+                try {
+                    n = in.read(buf, filled, buf.length - filled);
+                } catch (SocketTimeoutException idle) {
+                    return null;
+                }
+                if (n < 0) {
+                    // Fermeture au milieu d'un en-tête : requête incomplète
+                    return filled > 0 ? head.reject(400) : null;
+                }
+                filled += n;
+            }
+            consumed = end + 4;
+            return head.parse(buf, end);
+        }
+    }
+
+    /** Corps de la réponse ; retourne les octets du fichier envoyés (hors frontières multipart). */
+    private long copyBody(Socket socket, OutputStream out, StreamingServer.StreamResponse response,
+                          BandwidthShaper.Session shaping) throws IOException {
+        if (response.parts == null) {
+            return copyRange(socket, out, response, response.bodyStart, response.bodyLength, shaping);
+        }
+        long sent = 0;
+        for (StreamingServer.StreamResponse.Part part : response.parts) {
+            out.write(part.prefix());
+            long copied = copyRange(socket, out, response, part.start(), part.length(), shaping);
+            sent += copied;
+            if (copied < part.length()) return sent;
+        }
+        out.write(response.trailer);
+        return sent;
+    }
+
+    private long copyRange(Socket socket, OutputStream out, StreamingServer.StreamResponse response,
+                           long start, long length, BandwidthShaper.Session shaping) throws IOException {
+        if (shaping == null || !shaping.limited()) {
+            return copySlice(socket, out, response, start, length);
+        }
+        // Débit limité : tranches de SHAPED_CHUNK, chacune suivie de l'attente imposée par les seaux
+        long sent = 0;
+        while (sent < length) {
+            long chunk = Math.min(SHAPED_CHUNK, length - sent);
+            long copied = copySlice(socket, out, response, start + sent, chunk);
+            sent += copied;
+            shaping.throttle(copied);
+            if (copied < chunk) break;
+        }
+        return sent;
+    }
+
+    private long copySlice(Socket socket, OutputStream out, StreamingServer.StreamResponse response,
+                           long start, long length) throws IOException {
+        SocketChannel channel = socket.getChannel();
+        SegmentCache cache = SegmentCache.get();
+        if (response.countsAsStream && cache.isEnabled()) {
+            // Blocs populaires depuis la mémoire, le reste en transferTo
+            return cache.transfer(response.bodyFile.toPath(), start, length,
+                channel != null ? channel : Channels.newChannel(out));
+        }
+        if (zeroCopy && channel != null) {
+            // Zéro-copie : le noyau envoie la tranche directement depuis le cache de pages
+            return FileTransfer.transfer(response.bodyFile, start, length, channel);
+        }
+
+        long totalServed = 0;
+        try (FileInputStream fis = new FileInputStream(response.bodyFile)) {
+            fis.skipNBytes(start);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long remaining = length;
+            while (remaining > 0) {
+                int toRead = (int) Math.min(buffer.length, remaining);
+                int bytesRead = fis.read(buffer, 0, toRead);
+                if (bytesRead < 0) break;
+                out.write(buffer, 0, bytesRead);
+                remaining -= bytesRead;
+                totalServed += bytesRead;
+            }
+        }
+        return totalServed;
+    }
+
+    private void stopPool() {
+        if (pool == null || pool.isShutdown()) {
+            return;
+        }
+
+        pool.shutdown();
+        try {
+            if (!pool.awaitTermination(5, TimeUnit.SECONDS)) {
+                pool.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
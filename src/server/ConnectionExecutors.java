@@ -0,0 +1,158 @@
+package server;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import common.AppConfig;
+import common.AppLogger;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Exécuteurs des serveurs HTTP (streaming bloquant, Admin API, Diary API).
+ *
+ * http.executor choisit le mode : "platform" (pool cached de threads système, historique)
+ * ou "virtual" (un thread virtuel par connexion/échange). Dans les deux modes,
+ * une admission bornée (http.max.inflight) plafonne le nombre de traitements
+ * simultanés par serveur : au-delà, le client reçoit 503 + Retry-After au lieu de
+ * provoquer la création de threads supplémentaires.
+ */
+public final class ConnectionExecutors {
+    private static final String LOG = "ConnectionExecutors";
+    public static final String MODE_VIRTUAL = "virtual";
+
+    private ConnectionExecutors() {}
+
+    /** Pool de traitement des connexions pour le mode configuré. */
+    public static ExecutorService newConnectionPool(String name) {
+        if (MODE_VIRTUAL.equals(AppConfig.get().getHttpExecutor())) {
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 0).factory());
+        }
+        return Executors.newCachedThreadPool();
+    }
+
+    /**
+     * Crée un HttpServer dont l'exécuteur suit http.executor et dont chaque
+     * contexte passe par le filtre d'admission.
+     */
+    public static HttpServer newHttpServer(InetSocketAddress address, String name) throws IOException {
+        HttpServer delegate = HttpServer.create(address, 0);
+        Admission admission = new Admission(name, AppConfig.get().getHttpMaxInFlight());
+        delegate.setExecutor(newConnectionPool(name));
+        AppLogger.info(LOG, name + ": exécuteur " + AppConfig.get().getHttpExecutor()
+            + ", admission max " + admission.limit);
+        return new AdmittingHttpServer(delegate, admission);
+    }
+
+    /** Admission du serveur créé par newHttpServer (null pour un HttpServer quelconque). */
+    public static Admission admissionOf(HttpServer server) {
+        return server instanceof AdmittingHttpServer s ? s.admission : null;
+    }
+
+    /** Plafond de traitements simultanés (sémaphore non bloquant) avec compteurs. */
+    public static final class Admission {
+        private final String name;
+        private final int limit;
+        private final Semaphore permits;
+        private final AtomicLong rejected = new AtomicLong();
+
+        public Admission(String name, int limit) {
+            this.name = name;
+            this.limit = Math.max(1, limit);
+            this.permits = new Semaphore(this.limit);
+        }
+
+        /** Réserve une place ; false (et comptage du rejet) si le serveur est saturé. */
+        public boolean tryAcquire() {
+            if (permits.tryAcquire()) return true;
+            if (rejected.incrementAndGet() % 100 == 1) {
+                AppLogger.warn(LOG, name + ": admission saturée (" + limit + " en cours), rejets=" + rejected.get());
+            }
+            return false;
+        }
+
+        public void release() {
+            permits.release();
+        }
+
+        public int  getLimit()    { return limit; }
+        public int  getInFlight() { return limit - permits.availablePermits(); }
+        public long getRejected() { return rejected.get(); }
+    }
+
+    private static final class AdmissionFilter extends Filter {
+        private final Admission admission;
+
+        private AdmissionFilter(Admission admission) {
+            this.admission = admission;
+        }
+
+        @Override
+        public void doFilter(HttpExchange ex, Chain chain) throws IOException {
+            if (!admission.tryAcquire()) {
+                ex.getResponseHeaders().set("Retry-After", "1");
+                ex.sendResponseHeaders(503, -1);
+                ex.close();
+                return;
+            }
+            try {
+                chain.doFilter(ex);
+            } finally {
+                admission.release();
+            }
+        }
+
+        @Override
+        public String description() {
+            return "admission bornée";
+        }
+    }
+
+    /** HttpServer délégué qui ajoute le filtre d'admission à chaque contexte créé. */
+    private static final class AdmittingHttpServer extends HttpServer {
+        private final HttpServer delegate;
+        private final Admission admission;
+        private final Filter filter;
+
+        private AdmittingHttpServer(HttpServer delegate, Admission admission) {
+            this.delegate = delegate;
+            this.admission = admission;
+            this.filter = new AdmissionFilter(admission);
+        }
+
+        @Override
+        public HttpContext createContext(String path, HttpHandler handler) {
+            HttpContext ctx = delegate.createContext(path, handler);
+            ctx.getFilters().add(filter);
+            return ctx;
+        }
+
+        @Override
+        public HttpContext createContext(String path) {
+            HttpContext ctx = delegate.createContext(path);
+            ctx.getFilters().add(filter);
+            return ctx;
+        }
+
+        @Override public void bind(InetSocketAddress addr, int backlog) throws IOException { delegate.bind(addr, backlog); }
+        @Override public void start()                          { delegate.start(); }
+        @Override public void setExecutor(Executor executor)   { delegate.setExecutor(executor); }
+        @Override public Executor getExecutor()                { return delegate.getExecutor(); }
+        @Override public void removeContext(String path)       { delegate.removeContext(path); }
+        @Override public void removeContext(HttpContext ctx)   { delegate.removeContext(ctx); }
+        @Override public InetSocketAddress getAddress()        { return delegate.getAddress(); }
+
+        @Override
+        public void stop(int delay) {
+            delegate.stop(delay);
+            if (delegate.getExecutor() instanceof ExecutorService pool) pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package server;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Transfert d'une tranche de fichier vers un canal de sortie via FileChannel.transferTo.
+ *
+ * Lorsque la cible est un SocketChannel, le noyau envoie les octets directement
+ * depuis le cache de pages (sendfile) : ils ne transitent jamais par le tas Java.
+ * Pour une autre cible, le JDK retombe sur une copie par tampon direct.
+ */
+public final class FileTransfer {
+
+    private FileTransfer() {}
+
+    /** Transfère [start, start+length) et retourne le nombre d'octets réellement envoyés. */
+    public static long transfer(File file, long start, long length, WritableByteChannel target) throws IOException {
+        return transfer(file.toPath(), start, length, target);
+    }
+
+    public static long transfer(Path file, long start, long length, WritableByteChannel target) throws IOException {
+        try (FileChannel fc = FileChannel.open(file, StandardOpenOption.READ)) {
+            return transfer(fc, start, length, target);
+        }
+    }
+
+    /**
+     * Boucle bloquante : transferTo peut envoyer moins que demandé, on relance
+     * jusqu'à épuisement de la tranche ou fin de fichier (fichier tronqué).
+     */
+    public static long transfer(FileChannel fc, long start, long length, WritableByteChannel target) throws IOException {
+        long position = start;
+        long remaining = length;
+        long sent = 0;
+        while (remaining > 0) {
+            if (position >= fc.size()) break;
+            long n = fc.transferTo(position, remaining, target);
+            if (n <= 0) break;
+            position += n;
+            remaining -= n;
+            sent += n;
+        }
+        return sent;
+    }
+}
@@ -0,0 +1,207 @@
+package server;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+
+/**
+ * Validateurs HTTP d'un fichier servi : ETag fort et Last-Modified.
+ *
+ * L'ETag combine l'identité du fichier (inode si le système la fournit, sinon le
+ * chemin absolu), sa taille et sa date de modification : il change dès que le
+ * fichier est remplacé ou réécrit, sans jamais lire son contenu. Une instance est
+ * calculée une fois puis réutilisée tant que taille et date sont inchangées (current).
+ *
+ * Les en-têtes conditionnels sont évalués sur des octets (ceux du tampon de requête
+ * du streaming) ; seules les dates au format IMF-fixdate sont reconnues, une autre
+ * forme est ignorée, ce qui revient à servir la réponse complète.
+ */
+public final class FileValidators {
+
+    private static final DateTimeFormatter HTTP_DATE =
+        DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.ENGLISH).withZone(ZoneOffset.UTC);
+    private static final byte[] MONTHS = "JanFebMarAprMayJunJulAugSepOctNovDec".getBytes(StandardCharsets.US_ASCII);
+
+    private final long length;
+    private final long lastModified;
+    private final String etag;
+    private final String lastModifiedHttp;
+    private final byte[] etagBytes;
+
+    private FileValidators(long length, long lastModified, String etag) {
+        this.length = length;
+        this.lastModified = lastModified;
+        this.etag = etag;
+        this.lastModifiedHttp = HTTP_DATE.format(Instant.ofEpochMilli(lastModified));
+        this.etagBytes = etag.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /** Validateurs du fichier : cached s'il correspond toujours (taille et date), sinon recalculés. */
+    public static FileValidators current(FileValidators cached, Path file) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        long size = attrs.size();
+        long modified = attrs.lastModifiedTime().toMillis();
+        if (cached != null && cached.length == size && cached.lastModified == modified) {
+            return cached;
+        }
+        Object key = attrs.fileKey();
+        String identity = key != null ? key.toString() : file.toAbsolutePath().toString();
+        String etag = '"' + Long.toHexString(fnv1a(identity)) + '-' + Long.toHexString(size)
+            + '-' + Long.toHexString(modified) + '"';
+        return new FileValidators(size, modified, etag);
+    }
+
+    public long   getLength()           { return length; }
+    public String getEtag()             { return etag; }
+    public String getLastModifiedHttp() { return lastModifiedHttp; }
+
+    /**
+     * Réponse 304 attendue pour un GET/HEAD : If-None-Match (comparaison faible) prime
+     * sur If-Modified-Since (RFC 9110 §13.2.2). inm* = -1 si If-None-Match est absent,
+     * ifModifiedSince = -1 si absent ou illisible.
+     */
+    boolean notModified(byte[] buf, int inmStart, int inmEnd, long ifModifiedSince) {
+        if (inmStart >= 0) {
+            return matchesEntityTag(buf, inmStart, inmEnd, true);
+        }
+        return ifModifiedSince >= 0 && lastModified / 1000 * 1000 <= ifModifiedSince;
+    }
+
+    /**
+     * If-Range : la plage demandée reste valable si l'ETag correspond (comparaison forte)
+     * ou si la date est exactement Last-Modified ; sinon le contenu complet est servi.
+     */
+    boolean rangeStillValid(byte[] buf, int start, int end) {
+        if (start < 0) return true;
+        if (start < end && (buf[start] == '"' || buf[start] == 'W')) {
+            return matchesEntityTag(buf, start, end, false);
+        }
+        long date = parseHttpDate(buf, start, end);
+        return date >= 0 && date == lastModified / 1000 * 1000;
+    }
+
+    /** Variante pour les en-têtes déjà décodés (HttpExchange). */
+    public boolean notModified(String ifNoneMatch, String ifModifiedSince) {
+        if (ifNoneMatch != null) {
+            byte[] b = ifNoneMatch.getBytes(StandardCharsets.ISO_8859_1);
+            return notModified(b, 0, b.length, -1);
+        }
+        if (ifModifiedSince == null) return false;
+        byte[] b = ifModifiedSince.getBytes(StandardCharsets.ISO_8859_1);
+        return notModified(null, -1, -1, parseHttpDate(b, 0, b.length));
+    }
+
+    public boolean rangeStillValid(String ifRange) {
+        if (ifRange == null) return true;
+        byte[] b = ifRange.getBytes(StandardCharsets.ISO_8859_1);
+        return rangeStillValid(b, 0, b.length);
+    }
+
+    /** If-None-Match contenant etag (comparaison faible), pour un contenu généré sans fichier. */
+    public static boolean noneMatch(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) return false;
+        byte[] b = ifNoneMatch.getBytes(StandardCharsets.ISO_8859_1);
+        return matchesEntityTag(etag.getBytes(StandardCharsets.US_ASCII), b, 0, b.length, true);
+    }
+
+    private boolean matchesEntityTag(byte[] buf, int start, int end, boolean weakComparison) {
+        return matchesEntityTag(etagBytes, buf, start, end, weakComparison);
+    }
+
+    /** Liste d'ETags (ou *) contenant etagBytes ; en comparaison forte, un ETag faible ne correspond jamais. */
+    private static boolean matchesEntityTag(byte[] etagBytes, byte[] buf, int start, int end, boolean weakComparison) {
+        int p = start;
+        while (p < end) {
+            byte b = buf[p];
+            if (b == ' ' || b == '\t' || b == ',') {
+                p++;
+                continue;
+            }
+            if (b == '*') return weakComparison;
+            boolean weak = false;
+            if (b == 'W' && p + 1 < end && buf[p + 1] == '/') {
+                weak = true;
+                p += 2;
+            }
+            if (p >= end || buf[p] != '"') return false;
+            int close = p + 1;
+            while (close < end && buf[close] != '"') close++;
+            if (close >= end) return false;
+            if ((!weak || weakComparison) && close + 1 - p == etagBytes.length && regionEquals(buf, p, etagBytes)) {
+                return true;
+            }
+            p = close + 1;
+        }
+        return false;
+    }
+
+    /**
+     * Date IMF-fixdate (« Sun, 06 Nov 1994 08:49:37 GMT ») en millisecondes epoch,
+     * -1 si le format n'est pas reconnu.
+     */
+    static long parseHttpDate(byte[] buf, int start, int end) {
+        while (start < end && (buf[start] == ' ' || buf[start] == '\t')) start++;
+        while (end > start && (buf[end - 1] == ' ' || buf[end - 1] == '\t')) end--;
+        if (end - start != 29 || buf[start + 3] != ',' || buf[start + 4] != ' ' || buf[start + 7] != ' '
+            || buf[start + 11] != ' ' || buf[start + 16] != ' ' || buf[start + 19] != ':' || buf[start + 22] != ':'
+            || buf[start + 25] != ' ' || buf[start + 26] != 'G' || buf[start + 27] != 'M' || buf[start + 28] != 'T') {
+            return -1;
+        }
+        int day = digits(buf, start + 5, 2);
+        int year = digits(buf, start + 12, 4);
+        int hour = digits(buf, start + 17, 2);
+        int minute = digits(buf, start + 20, 2);
+        int second = digits(buf, start + 23, 2);
+        int month = -1;
+        for (int m = 0; m < 12; m++) {
+            if (buf[start + 8] == MONTHS[m * 3] && buf[start + 9] == MONTHS[m * 3 + 1] && buf[start + 10] == MONTHS[m * 3 + 2]) {
+                month = m + 1;
+                break;
+            }
+        }
+        if (day < 1 || day > 31 || year < 0 || month < 0 || hour < 0 || hour > 23
+            || minute < 0 || minute > 59 || second < 0 || second > 60) {
+            return -1;
+        }
+        // Jours depuis l'epoch (calendrier grégorien proleptique, sans allocation)
+        int y = month <= 2 ? year - 1 : year;
+        int era = Math.floorDiv(y, 400);
+        int yoe = y - era * 400;
+        int doy = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        long days = era * 146_097L + doe - 719_468L;
+        return ((days * 24 + hour) * 60 + minute) * 60_000L + second * 1000L;
+    }
+
+    private static int digits(byte[] buf, int start, int count) {
+        int v = 0;
+        for (int i = start; i < start + count; i++) {
+            int d = buf[i] - '0';
+            if (d < 0 || d > 9) return -1;
+            v = v * 10 + d;
+        }
+        return v;
+    }
+
+    private static boolean regionEquals(byte[] buf, int start, byte[] word) {
+        for (int i = 0; i < word.length; i++) {
+            if (buf[start + i] != word[i]) return false;
+        }
+        return true;
+    }
+
+    private static long fnv1a(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+}
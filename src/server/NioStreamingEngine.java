@@ -0,0 +1,537 @@
+package server;
+
+import common.AppConfig;
+import common.AppLogger;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Moteur HTTP non bloquant du StreamingServer (streaming.engine=nio).
+ *
+ * Un petit nombre fixe de boucles d'événements (Selector) multiplexe toutes les
+ * connexions : lecture de la requête sans blocage, puis transfert du corps piloté
+ * par OP_WRITE (blocs populaires depuis le SegmentCache, sinon transferTo zéro-copie
+ * si streaming.zero.copy, sinon tampon direct).
+ * Aucune connexion ne monopolise un thread pendant la lecture vidéo. Une connexion
+ * freinée par le BandwidthShaper est mise en pause (aucun intérêt sur le Selector)
+ * et réveillée par la boucle à l'échéance, sans thread endormi. Les connexions
+ * sont persistantes (keep-alive) : les requêtes pipelinées déjà reçues sont servies
+ * dans l'ordre, et un balayage périodique ferme celles inactives trop longtemps.
+ * La logique HTTP (routes, Range, en-têtes, stats) reste dans StreamingServer ;
+ * le titre servi est résolu par le StreamSite (serveur dédié ou hôte partagé).
+ */
+final class NioStreamingEngine {
+
+    private static final String LOG = "NioStreamingEngine";
+    private static final int BODY_CHUNK = 65536;
+
+    private final StreamSite site;
+    private final int port;
+    private final boolean zeroCopy;
+    private final SegmentCache segmentCache = SegmentCache.get();
+    private final int keepAliveTimeoutMs;
+    private final int keepAliveMaxRequests;
+    private final int maxHeaderBytes;
+    private final EventLoop[] loops;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+
+    private volatile boolean running;
+    private ServerSocketChannel serverChannel;
+
+    NioStreamingEngine(StreamSite site, int port, int threads) {
+        this.site = site;
+        this.port = port;
+        AppConfig cfg = AppConfig.get();
+        this.zeroCopy = cfg.isStreamingZeroCopy();
+        this.keepAliveTimeoutMs = cfg.getStreamingKeepAliveTimeoutMs();
+        this.keepAliveMaxRequests = cfg.getStreamingKeepAliveMaxRequests();
+        this.maxHeaderBytes = cfg.getStreamingMaxHeaderBytes();
+        this.loops = new EventLoop[Math.max(1, threads)];
+    }
+
+    /** Ouvre le port et démarre les boucles. Lève IOException si le bind échoue. */
+    void start() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.bind(new InetSocketAddress(port));
+            serverChannel.configureBlocking(false);
+            for (int i = 0; i < loops.length; i++) {
+                loops[i] = new EventLoop(Selector.open());
+            }
+        } catch (IOException e) {
+            closeQuietly();
+            throw e;
+        }
+
+        running = true;
+        // La boucle 0 accepte les connexions puis les répartit en round-robin
+        loops[0].execute(() -> {
+            try {
+                serverChannel.register(loops[0].selector, SelectionKey.OP_ACCEPT, serverChannel);
+            } catch (IOException e) {
+                AppLogger.error(LOG, "Enregistrement accept impossible: " + e.getMessage());
+            }
+        });
+        for (int i = 0; i < loops.length; i++) {
+            Thread t = new Thread(loops[i]::run, "streaming-nio-" + port + "-" + i);
+            t.setDaemon(true);
+            t.start();
+        }
+        AppLogger.info(LOG, "En écoute port " + port + " (nio, " + loops.length + " boucle(s)) — " + site.describe());
+    }
+
+    void stop() {
+        running = false;
+        for (EventLoop loop : loops) {
+            if (loop != null) loop.selector.wakeup();
+        }
+        closeQuietly();
+    }
+
+    private void closeQuietly() {
+        try {
+            if (serverChannel != null) serverChannel.close();
+        } catch (IOException ignored) {}
+    }
+
+    private void accept() {
+        while (true) {
+            SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+            } catch (IOException e) {
+                if (running) AppLogger.warn(LOG, "Erreur acceptation: " + e.getMessage());
+                return;
+            }
+            if (channel == null) return;
+
+            String clientIp;
+            try {
+                channel.configureBlocking(false);
+                clientIp = ((InetSocketAddress) channel.getRemoteAddress()).getAddress().getHostAddress();
+            } catch (IOException e) {
+                try { channel.close(); } catch (IOException ignored) {}
+                continue;
+            }
+
+            EventLoop loop = loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+            loop.execute(() -> loop.register(channel, clientIp));
+        }
+    }
+
+    // ─── Boucle d'événements ────────────────────────────────────────────────
+
+    private final class EventLoop {
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        // Connexions en pause de débit, par échéance (accès depuis le thread de la boucle)
+        private final PriorityQueue<Connection> paused = new PriorityQueue<>(Comparator.comparingLong(c -> c.resumeAt));
+
+        private EventLoop(Selector selector) {
+            this.selector = selector;
+        }
+
+        /** Exécute une tâche dans le thread de la boucle (thread-safe). */
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        void register(SocketChannel channel, String clientIp) {
+            Connection conn = new Connection(this, channel, new StreamSession(site, clientIp));
+            if (!conn.session.open()) {
+                conn.rejectAndClose(StreamingServer.errorResponse(429, "Too Many Requests"));
+                return;
+            }
+            try {
+                conn.key = channel.register(selector, SelectionKey.OP_READ, conn);
+            } catch (IOException e) {
+                conn.close();
+            }
+        }
+
+        void run() {
+            try {
+                long idleNanos = keepAliveTimeoutMs * 1_000_000L;
+                long nextSweep = System.nanoTime() + 1_000_000_000L;
+                while (running) {
+                    selector.select(selectTimeoutMs());
+                    long now = System.nanoTime();
+                    resumeDue(now);
+                    if (now - nextSweep >= 0) {
+                        sweepIdle(now, idleNanos);
+                        nextSweep = now + 1_000_000_000L;
+                    }
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        dispatch(key);
+                    }
+                }
+            } catch (IOException e) {
+                if (running) AppLogger.error(LOG, "Boucle nio interrompue: " + e.getMessage());
+            } finally {
+                closeAll();
+            }
+        }
+
+        private void dispatch(SelectionKey key) {
+            try {
+                if (!key.isValid()) return;
+                if (key.attachment() == serverChannel) {
+                    if (key.isAcceptable()) accept();
+                    return;
+                }
+                Connection conn = (Connection) key.attachment();
+                if (key.isReadable()) conn.onReadable();
+                if (key.isValid() && key.isWritable()) conn.onWritable();
+            } catch (CancelledKeyException ignored) {
+            }
+        }
+
+        /** Met la connexion en pause jusqu'à resumeAt (nanoTime). */
+        void pause(Connection conn, long resumeAt) {
+            conn.resumeAt = resumeAt;
+            conn.key.interestOps(0);
+            paused.add(conn);
+        }
+
+        private long selectTimeoutMs() {
+            Connection next = paused.peek();
+            if (next == null) return 1000;
+            long waitNanos = next.resumeAt - System.nanoTime();
+            return Math.max(1, Math.min(1000, (waitNanos + 999_999) / 1_000_000));
+        }
+
+        private void resumeDue(long now) {
+            Connection conn;
+            while ((conn = paused.peek()) != null && conn.resumeAt - now <= 0) {
+                paused.poll();
+                conn.resume();
+            }
+        }
+
+        private void sweepIdle(long now, long idleNanos) {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connection conn) conn.closeIfIdle(now, idleNanos);
+            }
+        }
+
+        private void closeAll() {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connection conn) conn.close();
+            }
+            try { selector.close(); } catch (IOException ignored) {}
+        }
+    }
+
+    // ─── Connexion ──────────────────────────────────────────────────────────
+
+    private final class Connection {
+        private final EventLoop loop;
+        private final SocketChannel channel;
+        private final StreamSession session;
+        private SelectionKey key;
+        private boolean closed;
+
+        private final ByteBuffer request = ByteBuffer.allocate(maxHeaderBytes);
+        private final RequestHead parsed = new RequestHead();
+        private int scanned;
+        private StreamingServer.StreamResponse response;
+        private ByteBuffer header;
+        private FileChannel body;
+        private Path bodyPath;
+        private SegmentCache.Stamp stamp;
+        private ByteBuffer bodyBuffer;
+        private ByteBuffer pending;
+        private long bodyPosition;
+        private long bodyRemaining;
+        private int nextPart;
+        private long responseBytes;
+        private int consumed;
+        private int requestsServed;
+        private boolean preparing;
+        private long resumeAt;
+        private boolean throttled;
+        private long lastActivity = System.nanoTime();
+
+        private Connection(EventLoop loop, SocketChannel channel, StreamSession session) {
+            this.loop = loop;
+            this.channel = channel;
+            this.session = session;
+        }
+
+        void onReadable() {
+            try {
+                int n = channel.read(request);
+                if (n < 0) {
+                    close();
+                    return;
+                }
+                if (n > 0) lastActivity = System.nanoTime();
+                processBuffered();
+            } catch (IOException e) {
+                session.logIoError(e);
+                close();
+            }
+        }
+
+        /**
+         * Traite la prochaine requête complète présente dans le tampon (éventuellement
+         * pipelinée derrière la précédente). Sinon, attend de nouveaux octets.
+         */
+        private void processBuffered() {
+            int end = RequestHead.headerEnd(request.array(), scanned, request.position());
+            if (end < 0) {
+                scanned = request.position();
+                if (!request.hasRemaining()) {
+                    beginResponse(session.respond(parsed.reject(431), false));
+                } else {
+                    key.interestOps(SelectionKey.OP_READ);
+                }
+                return;
+            }
+            key.interestOps(0);
+            RequestHead head = parsed.parse(request.array(), end);
+            consumed = end + 4;
+            requestsServed++;
+            boolean keepAliveAllowed = requestsServed < keepAliveMaxRequests;
+            StreamingServer title = session.peek(head);
+            if (title != null && title.requiresBlockingPreparation(head)) {
+                // Routage et admission sur la boucle (la session n'est pas synchronisée,
+                // close() la libère ici) ; seul ffmpeg, parfois plusieurs secondes, en sort
+                StreamingServer.StreamResponse refused = session.admit(head);
+                if (refused != null) {
+                    beginResponse(refused);
+                    return;
+                }
+                preparing = true;
+                Thread.ofVirtual().start(() -> {
+                    StreamingServer.StreamResponse r = title.prepareResponse(head, keepAliveAllowed);
+                    loop.execute(() -> {
+                        preparing = false;
+                        beginResponse(r);
+                    });
+                });
+            } else {
+                beginResponse(session.respond(head, keepAliveAllowed));
+            }
+        }
+
+        private void beginResponse(StreamingServer.StreamResponse r) {
+            if (closed) return;
+            response = r;
+            header = ByteBuffer.wrap(r.header);
+            responseBytes = 0;
+            bodyRemaining = 0;
+            nextPart = 0;
+            pending = null;
+            stamp = null;
+            try {
+                if (r.hasBody()) {
+                    bodyPath = r.bodyFile.toPath();
+                    body = FileChannel.open(bodyPath, StandardOpenOption.READ);
+                    if (r.parts == null) {
+                        bodyPosition = r.bodyStart;
+                        bodyRemaining = Math.min(r.bodyLength, Math.max(0, body.size() - r.bodyStart));
+                    }
+                    if (r.countsAsStream && segmentCache.isEnabled()) {
+                        stamp = SegmentCache.Stamp.of(bodyPath);
+                    }
+                    if (!zeroCopy && bodyBuffer == null) {
+                        bodyBuffer = ByteBuffer.allocateDirect(BODY_CHUNK);
+                    }
+                }
+                key.interestOps(SelectionKey.OP_WRITE);
+                onWritable();
+            } catch (IOException e) {
+                session.logIoError(e);
+                close();
+            }
+        }
+
+        void onWritable() {
+            try {
+                do {
+                    while (header.hasRemaining()) {
+                        if (channel.write(header) == 0) return;
+                    }
+                    if (!writeBody()) return;
+                } while (bodyRemaining <= 0 && nextPart());
+                finishResponse();
+            } catch (IOException e) {
+                session.logIoError(e);
+                close();
+            }
+        }
+
+        /**
+         * Multipart : enchaîne sur la partie suivante (en-têtes de partie dans header,
+         * tranche dans bodyPosition/bodyRemaining), puis sur la frontière finale.
+         * Retourne false quand la réponse n'a plus rien à envoyer.
+         */
+        private boolean nextPart() throws IOException {
+            StreamingServer.StreamResponse.Part[] parts = response.parts;
+            if (parts == null || nextPart > parts.length) return false;
+            if (nextPart == parts.length) {
+                header = ByteBuffer.wrap(response.trailer);
+            } else {
+                StreamingServer.StreamResponse.Part part = parts[nextPart];
+                header = ByteBuffer.wrap(part.prefix());
+                bodyPosition = part.start();
+                bodyRemaining = Math.min(part.length(), Math.max(0, body.size() - part.start()));
+            }
+            nextPart++;
+            return true;
+        }
+
+        /** Envoie la tranche en cours ; false si la socket est pleine (reprise sur OP_WRITE). */
+        private boolean writeBody() throws IOException {
+            while (body != null) {
+                // Octets déjà prêts (bloc du cache ou tampon lu) : on les vide d'abord
+                if (pending != null && pending.hasRemaining()) {
+                    int written = channel.write(pending);
+                    if (written > 0) {
+                        lastActivity = System.nanoTime();
+                        responseBytes += written;
+                        if (throttle(written)) return false;
+                    }
+                    if (pending.hasRemaining()) return false;
+                    continue;
+                }
+                if (bodyRemaining <= 0) break;
+
+                long chunk = bodyRemaining;
+                if (stamp != null) {
+                    // Bloc populaire : servi depuis la mémoire, chargé en tâche de fond sinon
+                    ByteBuffer cached = segmentCache.slice(bodyPath, stamp, bodyPosition, true);
+                    if (cached != null) {
+                        if (cached.remaining() > bodyRemaining) cached.limit(cached.position() + (int) bodyRemaining);
+                        bodyPosition += cached.remaining();
+                        bodyRemaining -= cached.remaining();
+                        pending = cached;
+                        continue;
+                    }
+                    chunk = Math.min(bodyRemaining, segmentCache.blockEnd(bodyPosition) - bodyPosition);
+                }
+
+                if (zeroCopy) {
+                    // Zéro-copie : sendfile depuis le cache de pages, 0 = socket pleine
+                    long sent = body.transferTo(bodyPosition, chunk, channel);
+                    if (sent == 0) {
+                        if (bodyPosition >= body.size()) break;
+                        return false;
+                    }
+                    lastActivity = System.nanoTime();
+                    bodyPosition += sent;
+                    bodyRemaining -= sent;
+                    responseBytes += sent;
+                    if (throttle(sent)) return false;
+                } else {
+                    bodyBuffer.clear();
+                    if (chunk < bodyBuffer.capacity()) bodyBuffer.limit((int) chunk);
+                    int read = body.read(bodyBuffer, bodyPosition);
+                    if (read < 0) break;
+                    bodyPosition += read;
+                    bodyRemaining -= read;
+                    bodyBuffer.flip();
+                    pending = bodyBuffer;
+                }
+            }
+            return true;
+        }
+
+        private void finishResponse() {
+            session.onSent(response, responseBytes);
+            boolean complete = bodyRemaining <= 0
+                && (response.parts == null || nextPart > response.parts.length);
+            pending = null;
+            if (body != null) {
+                try { body.close(); } catch (IOException ignored) {}
+                body = null;
+            }
+            if (!response.keepAlive || !complete) {
+                close();
+                return;
+            }
+            // Keep-alive : on retire la requête traitée et on enchaîne sur la suivante
+            request.flip().position(consumed);
+            request.compact();
+            consumed = 0;
+            scanned = 0;
+            response = null;
+            processBuffered();
+        }
+
+        /** Ferme la connexion si elle n'a montré aucune activité depuis le délai d'inactivité. */
+        void closeIfIdle(long now, long idleNanos) {
+            if (!preparing && !throttled && now - lastActivity > idleNanos) close();
+        }
+
+        /**
+         * Décompte les octets envoyés auprès du BandwidthShaper ; true si la connexion
+         * vient d'être mise en pause (l'envoi reprendra à l'échéance).
+         */
+        private boolean throttle(long bytes) {
+            BandwidthShaper.Session shaping = session.shaping();
+            if (shaping == null) return false;
+            long delay = shaping.charge(bytes);
+            if (delay <= 0) return false;
+            throttled = true;
+            loop.pause(this, System.nanoTime() + delay);
+            return true;
+        }
+
+        void resume() {
+            throttled = false;
+            if (closed) return;
+            lastActivity = System.nanoTime();
+            try {
+                key.interestOps(SelectionKey.OP_WRITE);
+            } catch (CancelledKeyException e) {
+                return;
+            }
+            onWritable();
+        }
+
+        void rejectAndClose(byte[] bytes) {
+            try {
+                // Réponse courte : un seul write suffit en pratique sur un socket neuf
+                channel.write(ByteBuffer.wrap(bytes));
+            } catch (IOException ignored) {}
+            close();
+        }
+
+        void close() {
+            if (closed) return;
+            closed = true;
+            if (key != null) key.cancel();
+            try { channel.close(); } catch (IOException ignored) {}
+            if (body != null) {
+                try { body.close(); } catch (IOException ignored) {}
+                body = null;
+            }
+            session.release();
+        }
+    }
+}
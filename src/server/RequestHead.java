@@ -0,0 +1,343 @@
+package server;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * En-tête de requête HTTP réduit aux champs utiles au streaming, analysé
+ * directement sur les octets du tampon de la connexion.
+ *
+ * Une instance par connexion, réutilisée à chaque requête : l'analyse ne crée
+ * ni String ni objet intermédiaire (pas de readLine, split, substring ni regex).
+ * Le chemin est réduit à un identifiant de titre (/v/{id}) et à une route locale ;
+ * les plages Range (jusqu'à MAX_RANGES) et le jeton Connection sont décodés en
+ * champs numériques. If-None-Match et If-Range restent des intervalles du tampon
+ * (source), valables jusqu'à la requête suivante de la connexion ; If-Modified-Since
+ * est converti en millisecondes.
+ */
+final class RequestHead {
+
+    static final int METHOD_OTHER = 0;
+    static final int METHOD_GET = 1;
+    static final int METHOD_HEAD = 2;
+
+    static final int ROUTE_OTHER = 0;
+    static final int ROUTE_ROOT = 1;
+    static final int ROUTE_STREAM = 2;
+    static final int ROUTE_THUMBNAIL = 3;
+
+    /** Pas d'en-tête Range exploitable : contenu complet. */
+    static final int RANGE_NONE = 0;
+    /** rangeCount plages bytes=first-last (first = -1 pour un suffixe, last = -1 si ouverte). */
+    static final int RANGE_SPEC = 1;
+    /** Range syntaxiquement reconnu mais inutilisable (bytes=-, nombre trop grand) : 416. */
+    static final int RANGE_INVALID = 2;
+
+    static final int MAX_HEADER_LINES = 100;
+    /** Au-delà, l'en-tête Range est ignoré et le contenu complet servi (RFC 7233 §3.1). */
+    static final int MAX_RANGES = 16;
+
+    private static final byte[] GET = {'G', 'E', 'T'};
+    private static final byte[] HEAD = {'H', 'E', 'A', 'D'};
+    private static final byte[] HTTP_11 = {'H', 'T', 'T', 'P', '/', '1', '.', '1'};
+    private static final byte[] SCHEME_SEP = {':', '/', '/'};
+    private static final byte[] TITLE_PREFIX = {'/', 'v', '/'};
+    private static final byte[] STREAM = {'/', 's', 't', 'r', 'e', 'a', 'm'};
+    private static final byte[] THUMBNAIL = {'/', 't', 'h', 'u', 'm', 'b', 'n', 'a', 'i', 'l'};
+    private static final byte[] RANGE = {'r', 'a', 'n', 'g', 'e'};
+    private static final byte[] CONNECTION = {'c', 'o', 'n', 'n', 'e', 'c', 't', 'i', 'o', 'n'};
+    private static final byte[] BYTES_EQ = {'b', 'y', 't', 'e', 's', '='};
+    private static final byte[] CLOSE = {'c', 'l', 'o', 's', 'e'};
+    private static final byte[] KEEP_ALIVE = {'k', 'e', 'e', 'p', '-', 'a', 'l', 'i', 'v', 'e'};
+    private static final byte[] IF_NONE_MATCH = "if-none-match".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] IF_MODIFIED_SINCE = "if-modified-since".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] IF_RANGE = "if-range".getBytes(StandardCharsets.US_ASCII);
+
+    /** 0 si la requête est exploitable, sinon le statut d'erreur à renvoyer (400, 431). */
+    int error;
+    int method;
+    boolean http11;
+    /** Identifiant de titre du préfixe /v/{id} : -1 sans préfixe, 0 s'il est invalide. */
+    int titleId;
+    int route;
+    int rangeState;
+    int rangeCount;
+    final long[] rangeFirst = new long[MAX_RANGES];
+    final long[] rangeLast = new long[MAX_RANGES];
+    boolean connectionClose;
+    boolean connectionKeepAlive;
+    byte[] source;
+    /** Intervalles de valeur dans source, -1 si l'en-tête est absent. */
+    int ifNoneMatchStart;
+    int ifNoneMatchEnd;
+    int ifRangeStart;
+    int ifRangeEnd;
+    /** If-Modified-Since en millisecondes epoch, -1 si absent ou illisible. */
+    long ifModifiedSince;
+
+    /** Requête rejetée avant analyse (tampon plein, flux incomplet). */
+    RequestHead reject(int status) {
+        reset();
+        error = status;
+        return this;
+    }
+
+    /**
+     * Analyse l'en-tête buf[0, end) — ligne de requête et en-têtes, sans le
+     * \r\n\r\n final. Retourne this ; error vaut 0 si la requête est exploitable.
+     */
+    RequestHead parse(byte[] buf, int end) {
+        reset();
+        source = buf;
+
+        // Ligne de requête : METHOD SP target SP version
+        int lineEnd = indexOfCrlf(buf, 0, end);
+        int p = skipSpaces(buf, 0, lineEnd);
+        int methodEnd = skipToken(buf, p, lineEnd);
+        int targetStart = skipSpaces(buf, methodEnd, lineEnd);
+        int targetEnd = skipToken(buf, targetStart, lineEnd);
+        int versionStart = skipSpaces(buf, targetEnd, lineEnd);
+        int versionEnd = skipToken(buf, versionStart, lineEnd);
+        if (methodEnd == p || targetEnd == targetStart || versionEnd == versionStart) {
+            error = 400;
+            return this;
+        }
+        method = equalsIgnoreCase(buf, p, methodEnd, GET) ? METHOD_GET
+            : equalsIgnoreCase(buf, p, methodEnd, HEAD) ? METHOD_HEAD
+            : METHOD_OTHER;
+        http11 = equalsIgnoreCase(buf, versionStart, versionEnd, HTTP_11);
+        parseTarget(buf, targetStart, targetEnd);
+
+        // En-têtes : seuls Range et Connection nous intéressent
+        int lines = 0;
+        for (int start = lineEnd + 2; start < end; ) {
+            int eol = indexOfCrlf(buf, start, end);
+            if (++lines > MAX_HEADER_LINES) {
+                error = 431;
+                return this;
+            }
+            int colon = indexOf(buf, start, eol, (byte) ':');
+            if (colon > start) {
+                int nameEnd = trimEnd(buf, start, colon);
+                int valueStart = skipSpaces(buf, colon + 1, eol);
+                int valueEnd = trimEnd(buf, valueStart, eol);
+                if (equalsIgnoreCase(buf, start, nameEnd, RANGE)) {
+                    parseRange(buf, valueStart, valueEnd);
+                } else if (equalsIgnoreCase(buf, start, nameEnd, CONNECTION)) {
+                    connectionClose = containsIgnoreCase(buf, valueStart, valueEnd, CLOSE);
+                    connectionKeepAlive = containsIgnoreCase(buf, valueStart, valueEnd, KEEP_ALIVE);
+                } else if (equalsIgnoreCase(buf, start, nameEnd, IF_NONE_MATCH)) {
+                    ifNoneMatchStart = valueStart;
+                    ifNoneMatchEnd = valueEnd;
+                } else if (equalsIgnoreCase(buf, start, nameEnd, IF_MODIFIED_SINCE)) {
+                    ifModifiedSince = FileValidators.parseHttpDate(buf, valueStart, valueEnd);
+                } else if (equalsIgnoreCase(buf, start, nameEnd, IF_RANGE)) {
+                    ifRangeStart = valueStart;
+                    ifRangeEnd = valueEnd;
+                }
+            }
+            start = eol + 2;
+        }
+        return this;
+    }
+
+    /** HTTP/1.1 : persistant par défaut ; HTTP/1.0 : uniquement sur demande explicite. */
+    boolean wantsKeepAlive() {
+        return http11 ? !connectionClose : connectionKeepAlive;
+    }
+
+    /**
+     * Position du \r\n\r\n terminant l'en-tête dans buf[0, to), en reprenant la
+     * recherche à from (déjà parcouru avant). Retourne -1 si l'en-tête est incomplet.
+     */
+    static int headerEnd(byte[] buf, int from, int to) {
+        for (int i = Math.max(3, from); i < to; i++) {
+            if (buf[i] == '\n' && buf[i - 1] == '\r' && buf[i - 2] == '\n' && buf[i - 3] == '\r') {
+                return i - 3;
+            }
+        }
+        return -1;
+    }
+
+    private void reset() {
+        error = 0;
+        method = METHOD_OTHER;
+        http11 = false;
+        titleId = -1;
+        route = ROUTE_OTHER;
+        rangeState = RANGE_NONE;
+        rangeCount = 0;
+        connectionClose = false;
+        connectionKeepAlive = false;
+        source = null;
+        ifNoneMatchStart = -1;
+        ifNoneMatchEnd = -1;
+        ifRangeStart = -1;
+        ifRangeEnd = -1;
+        ifModifiedSince = -1;
+    }
+
+    /** Cible absolue (http://hôte/chemin) ou origine ; la query est ignorée. */
+    private void parseTarget(byte[] buf, int start, int end) {
+        int sep = indexOf(buf, start, end, SCHEME_SEP);
+        if (sep >= 0 && buf[start] != '/') {
+            start = indexOf(buf, sep + SCHEME_SEP.length, end, (byte) '/');
+            if (start < 0) {
+                route = ROUTE_ROOT;
+                return;
+            }
+        }
+        int query = indexOf(buf, start, end, (byte) '?');
+        if (query >= 0) end = query;
+
+        if (startsWith(buf, start, end, TITLE_PREFIX)) {
+            int idStart = start + TITLE_PREFIX.length;
+            int idEnd = indexOf(buf, idStart, end, (byte) '/');
+            if (idEnd < 0) idEnd = end;
+            long id = parseDigits(buf, idStart, idEnd);
+            titleId = id > 0 && id <= Integer.MAX_VALUE ? (int) id : 0;
+            start = idEnd;
+        }
+
+        int len = end - start;
+        if (len == 0 || (len == 1 && buf[start] == '/')) {
+            route = ROUTE_ROOT;
+        } else if (equalsExact(buf, start, end, STREAM)) {
+            route = ROUTE_STREAM;
+        } else if (equalsExact(buf, start, end, THUMBNAIL)) {
+            route = ROUTE_THUMBNAIL;
+        }
+    }
+
+    /**
+     * bytes=first-last[, first-last...] ; une valeur non reconnue ou trop de plages
+     * sont ignorées (contenu complet), une plage vide ou hors bornes numériques donne 416.
+     */
+    private void parseRange(byte[] buf, int start, int end) {
+        int p = indexOfIgnoreCase(buf, start, end, BYTES_EQ);
+        if (p < 0) return;
+        p += BYTES_EQ.length;
+
+        int count = 0;
+        boolean invalid = false;
+        while (p < end) {
+            int specEnd = indexOf(buf, p, end, (byte) ',');
+            if (specEnd < 0) specEnd = end;
+            int s = skipSpaces(buf, p, specEnd);
+            int e = trimEnd(buf, s, specEnd);
+            p = specEnd + 1;
+            if (s == e) continue; // élément vide de la liste
+
+            int firstEnd = skipDigits(buf, s, e);
+            if (firstEnd >= e || buf[firstEnd] != '-') return;
+            int lastEnd = skipDigits(buf, firstEnd + 1, e);
+            if (lastEnd != e) return;
+            if (count == MAX_RANGES) return;
+
+            long first = firstEnd == s ? -1 : parseDigits(buf, s, firstEnd);
+            long last = lastEnd == firstEnd + 1 ? -1 : parseDigits(buf, firstEnd + 1, lastEnd);
+            if ((firstEnd == s && lastEnd == firstEnd + 1)
+                || (firstEnd > s && first < 0) || (lastEnd > firstEnd + 1 && last < 0)) {
+                invalid = true;
+            }
+            rangeFirst[count] = first;
+            rangeLast[count] = last;
+            count++;
+        }
+        if (count == 0) return;
+        rangeState = invalid ? RANGE_INVALID : RANGE_SPEC;
+        rangeCount = invalid ? 0 : count;
+    }
+
+    // ─── Primitives sur octets ──────────────────────────────────────────────
+
+    /** Entier décimal non signé de buf[start, end), -1 s'il est vide, invalide ou déborde. */
+    private static long parseDigits(byte[] buf, int start, int end) {
+        if (start >= end || end - start > 18) return -1;
+        long v = 0;
+        for (int i = start; i < end; i++) {
+            int d = buf[i] - '0';
+            if (d < 0 || d > 9) return -1;
+            v = v * 10 + d;
+        }
+        return v;
+    }
+
+    private static int skipDigits(byte[] buf, int p, int end) {
+        while (p < end && buf[p] >= '0' && buf[p] <= '9') p++;
+        return p;
+    }
+
+    private static int skipSpaces(byte[] buf, int p, int end) {
+        while (p < end && (buf[p] == ' ' || buf[p] == '\t')) p++;
+        return p;
+    }
+
+    private static int skipToken(byte[] buf, int p, int end) {
+        while (p < end && buf[p] != ' ' && buf[p] != '\t') p++;
+        return p;
+    }
+
+    private static int trimEnd(byte[] buf, int start, int end) {
+        while (end > start && (buf[end - 1] == ' ' || buf[end - 1] == '\t')) end--;
+        return end;
+    }
+
+    private static int indexOfCrlf(byte[] buf, int from, int end) {
+        for (int i = from; i + 1 < end; i++) {
+            if (buf[i] == '\r' && buf[i + 1] == '\n') return i;
+        }
+        return end;
+    }
+
+    private static int indexOf(byte[] buf, int from, int end, byte b) {
+        for (int i = from; i < end; i++) {
+            if (buf[i] == b) return i;
+        }
+        return -1;
+    }
+
+    private static int indexOf(byte[] buf, int from, int end, byte[] needle) {
+        for (int i = from; i + needle.length <= end; i++) {
+            if (startsWith(buf, i, end, needle)) return i;
+        }
+        return -1;
+    }
+
+    private static int indexOfIgnoreCase(byte[] buf, int from, int end, byte[] needle) {
+        for (int i = from; i + needle.length <= end; i++) {
+            if (regionMatchesIgnoreCase(buf, i, needle)) return i;
+        }
+        return -1;
+    }
+
+    private static boolean containsIgnoreCase(byte[] buf, int from, int end, byte[] needle) {
+        return indexOfIgnoreCase(buf, from, end, needle) >= 0;
+    }
+
+    private static boolean startsWith(byte[] buf, int start, int end, byte[] prefix) {
+        if (end - start < prefix.length) return false;
+        for (int i = 0; i < prefix.length; i++) {
+            if (buf[start + i] != prefix[i]) return false;
+        }
+        return true;
+    }
+
+    private static boolean equalsExact(byte[] buf, int start, int end, byte[] word) {
+        return end - start == word.length && startsWith(buf, start, end, word);
+    }
+
+    private static boolean equalsIgnoreCase(byte[] buf, int start, int end, byte[] word) {
+        return end - start == word.length && regionMatchesIgnoreCase(buf, start, word);
+    }
+
+    private static boolean regionMatchesIgnoreCase(byte[] buf, int start, byte[] word) {
+        for (int i = 0; i < word.length; i++) {
+            if (lower(buf[start + i]) != lower(word[i])) return false;
+        }
+        return true;
+    }
+
+    private static int lower(byte b) {
+        return b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b;
+    }
+}
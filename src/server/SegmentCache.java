@@ -0,0 +1,244 @@
+package server;
+
+import common.AppConfig;
+import common.AppLogger;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache partagé des segments vidéo les plus demandés, hors du tas Java.
+ *
+ * Clé : (fichier, numéro de bloc de segment.cache.block.kb). Chaque bloc est lu une fois
+ * dans un ByteBuffer direct puis servi à tous les spectateurs ; l'ensemble est
+ * borné par segment.cache.max.mb avec éviction LRU. Un bloc n'entre en cache
+ * qu'à sa deuxième demande, pour qu'une lecture unique ne chasse pas les titres
+ * populaires. Les blocs d'un fichier dont la taille ou la date de modification
+ * a changé sont invalidés à la lecture suivante.
+ *
+ * Tampons directs plutôt que MappedByteBuffer : un fichier tronqué pendant
+ * qu'il est mappé provoque une erreur fatale à l'accès, pas une simple IOException.
+ */
+public final class SegmentCache {
+    private static final String LOG = "SegmentCache";
+    private static final int DOORKEEPER_SIZE = 4096;
+    private static final int SHAPED_CHUNK = 65536;
+    private static final SegmentCache INSTANCE = new SegmentCache();
+
+    private final boolean enabled;
+    private final int blockSize;
+    private final long maxBytes;
+
+    // Accès sous verrou de l'instance
+    private final LinkedHashMap<Key, Block> blocks = new LinkedHashMap<>(256, 0.75f, true);
+    private final Map<Key, Boolean> doorkeeper = new LinkedHashMap<>(256, 0.75f, false) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Boolean> eldest) {
+            return size() > DOORKEEPER_SIZE;
+        }
+    };
+    private long bytes;
+
+    private final Set<Key> loading = ConcurrentHashMap.newKeySet();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private SegmentCache() {
+        AppConfig cfg = AppConfig.get();
+        this.enabled = cfg.isSegmentCacheEnabled();
+        this.blockSize = cfg.getSegmentCacheBlockKb() * 1024;
+        this.maxBytes = cfg.getSegmentCacheMaxMb() * 1_048_576L;
+    }
+
+    public static SegmentCache get() {
+        return INSTANCE;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Fin (exclue) du bloc contenant position. */
+    long blockEnd(long position) {
+        return (position / blockSize + 1) * blockSize;
+    }
+
+    /**
+     * Transfère [start, start+length) vers target (appel bloquant) en servant les blocs
+     * en cache depuis la mémoire et le reste via transferTo. Retourne les octets envoyés.
+     */
+    public long transfer(Path file, long start, long length, WritableByteChannel target) throws IOException {
+        return transfer(file, start, length, target, null);
+    }
+
+    /**
+     * Idem avec limitation de débit : si shaping limite le flux, l'envoi est découpé
+     * en tranches de SHAPED_CHUNK suivies de l'attente imposée par les seaux.
+     */
+    public long transfer(Path file, long start, long length, WritableByteChannel target,
+                         BandwidthShaper.Session shaping) throws IOException {
+        if (shaping == null || !shaping.limited()) {
+            return transferUnshaped(file, start, length, target);
+        }
+        long sent = 0;
+        while (sent < length) {
+            long chunk = Math.min(SHAPED_CHUNK, length - sent);
+            long copied = transferUnshaped(file, start + sent, chunk, target);
+            sent += copied;
+            shaping.throttle(copied);
+            if (copied < chunk) break;
+        }
+        return sent;
+    }
+
+    private long transferUnshaped(Path file, long start, long length, WritableByteChannel target) throws IOException {
+        if (!enabled) {
+            return FileTransfer.transfer(file, start, length, target);
+        }
+        try (FileChannel fc = FileChannel.open(file, StandardOpenOption.READ)) {
+            Stamp stamp = Stamp.of(file);
+            long position = start;
+            long remaining = Math.min(length, Math.max(0, stamp.length - start));
+            long sent = 0;
+            while (remaining > 0) {
+                ByteBuffer cached = slice(file, stamp, position, false);
+                long chunk;
+                if (cached != null) {
+                    if (cached.remaining() > remaining) cached.limit(cached.position() + (int) remaining);
+                    chunk = cached.remaining();
+                    while (cached.hasRemaining()) {
+                        target.write(cached);
+                    }
+                } else {
+                    chunk = FileTransfer.transfer(fc, position, Math.min(remaining, blockEnd(position) - position), target);
+                    if (chunk <= 0) break;
+                }
+                position += chunk;
+                remaining -= chunk;
+                sent += chunk;
+            }
+            return sent;
+        }
+    }
+
+    /**
+     * Vue en lecture seule des octets [position, fin du bloc) si le bloc est en cache,
+     * sinon null. Un bloc demandé pour la deuxième fois est chargé : immédiatement
+     * (async=false) ou en tâche de fond (async=true, pour ne pas bloquer une boucle
+     * d'événements ; l'appelant lit alors le fichier lui-même cette fois-ci).
+     */
+    ByteBuffer slice(Path file, Stamp stamp, long position, boolean async) {
+        Key key = new Key(file.toString(), position / blockSize);
+        Block block;
+        boolean admit;
+        synchronized (this) {
+            block = blocks.get(key);
+            if (block != null && !block.stamp.equals(stamp)) {
+                removeBlock(key, block);
+                invalidations.incrementAndGet();
+                block = null;
+            }
+            admit = block == null && doorkeeper.put(key, Boolean.TRUE) != null;
+        }
+        if (block != null) {
+            hits.incrementAndGet();
+            return block.view(position - key.index * blockSize);
+        }
+        misses.incrementAndGet();
+        if (!admit || !loading.add(key)) {
+            return null;
+        }
+        if (async) {
+            Thread.ofVirtual().start(() -> load(file, stamp, key));
+            return null;
+        }
+        block = load(file, stamp, key);
+        return block == null ? null : block.view(position - key.index * blockSize);
+    }
+
+    private Block load(Path file, Stamp stamp, Key key) {
+        try {
+            long blockStart = key.index * blockSize;
+            int len = (int) Math.min(blockSize, stamp.length - blockStart);
+            if (len <= 0 || len > maxBytes) return null;
+            ByteBuffer data = ByteBuffer.allocateDirect(len);
+            try (FileChannel fc = FileChannel.open(file, StandardOpenOption.READ)) {
+                while (data.hasRemaining()) {
+                    if (fc.read(data, blockStart + data.position()) < 0) return null;
+                }
+            }
+            data.flip();
+            Block block = new Block(data.asReadOnlyBuffer(), stamp);
+            synchronized (this) {
+                Block previous = blocks.remove(key);
+                if (previous != null) bytes -= previous.size();
+                while (bytes + len > maxBytes && !blocks.isEmpty()) {
+                    Iterator<Map.Entry<Key, Block>> it = blocks.entrySet().iterator();
+                    Map.Entry<Key, Block> eldest = it.next();
+                    it.remove();
+                    bytes -= eldest.getValue().size();
+                    evictions.incrementAndGet();
+                }
+                blocks.put(key, block);
+                bytes += len;
+            }
+            return block;
+        } catch (IOException e) {
+            AppLogger.warn(LOG, "Lecture bloc impossible (" + file.getFileName() + "): " + e.getMessage());
+            return null;
+        } catch (OutOfMemoryError e) {
+            // Mémoire directe insuffisante (-XX:MaxDirectMemorySize) : on sert depuis le disque
+            AppLogger.warn(LOG, "Mémoire directe épuisée, bloc non mis en cache");
+            return null;
+        } finally {
+            loading.remove(key);
+        }
+    }
+
+    private void removeBlock(Key key, Block block) {
+        if (blocks.remove(key, block)) bytes -= block.size();
+    }
+
+    public long getHits()          { return hits.get(); }
+    public long getMisses()        { return misses.get(); }
+    public long getEvictions()     { return evictions.get(); }
+    public long getInvalidations() { return invalidations.get(); }
+    public long getMaxBytes()      { return maxBytes; }
+    public synchronized long getBytes()   { return bytes; }
+    public synchronized int  getBlocks()  { return blocks.size(); }
+
+    /** Taille et date de modification d'un fichier, relevées une fois par réponse. */
+    record Stamp(long length, long lastModified) {
+        static Stamp of(Path file) throws IOException {
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            return new Stamp(attrs.size(), attrs.lastModifiedTime().toMillis());
+        }
+    }
+
+    private record Key(String path, long index) {}
+
+    private record Block(ByteBuffer data, Stamp stamp) {
+        int size() {
+            return data.capacity();
+        }
+
+        ByteBuffer view(long offset) {
+            ByteBuffer view = data.duplicate();
+            view.position((int) offset);
+            return view;
+        }
+    }
+}
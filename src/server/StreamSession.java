@@ -0,0 +1,119 @@
+package server;
+
+/**
+ * État d'une connexion cliente côté streaming : titre auquel elle est liée
+ * (limite par IP, compteur de connexions actives) et octets vidéo servis
+ * depuis cette liaison. Utilisé par les deux moteurs.
+ *
+ * Sur un hôte partagé, une connexion keep-alive peut passer d'un titre à l'autre :
+ * la session est alors close pour l'ancien titre (vue enregistrée) et rouverte
+ * pour le nouveau. La limitation de débit (BandwidthShaper) suit la même liaison ;
+ * le seau de la connexion est conservé d'une requête keep-alive à l'autre.
+ */
+final class StreamSession {
+
+    private final StreamSite site;
+    private final String clientIp;
+    private StreamingServer title;
+    private BandwidthShaper.Session shaping;
+    private long bytesServed;
+
+    StreamSession(StreamSite site, String clientIp) {
+        this.site = site;
+        this.clientIp = clientIp;
+    }
+
+    String clientIp() {
+        return clientIp;
+    }
+
+    /** Liaison immédiate pour un serveur dédié. Retourne false si la limite par IP est atteinte. */
+    boolean open() {
+        StreamingServer initial = site.defaultTitle();
+        if (initial == null) return true;
+        if (!initial.tryAcquireClient(clientIp)) return false;
+        bind(initial);
+        return true;
+    }
+
+    /** Limitation de débit du titre lié, null si désactivée ou sans titre. */
+    BandwidthShaper.Session shaping() {
+        return shaping;
+    }
+
+    private void bind(StreamingServer target) {
+        title = target;
+        shaping = BandwidthShaper.get().open(clientIp, target.shapingKey(), BandwidthShaper.PLAN_ANONYMOUS,
+            target.getBitrateKbps());
+    }
+
+    /** Titre qui servira cette requête, sans effet de bord (null si aucun). */
+    StreamingServer peek(RequestHead head) {
+        return head.error != 0 ? null : site.resolve(head);
+    }
+
+    /**
+     * Prépare la réponse à une requête en (re)liant la session au titre visé.
+     * Les réponses hors titre (400, 404, 429, 431) ferment la connexion.
+     */
+    StreamingServer.StreamResponse respond(RequestHead head, boolean keepAliveAllowed) {
+        StreamingServer.StreamResponse refused = admit(head);
+        return refused != null ? refused : title.prepareResponse(head, keepAliveAllowed);
+    }
+
+    /**
+     * Routage et admission seuls : (re)lie la session au titre visé sans préparer la réponse.
+     * Retourne la réponse de refus, ou null si la session est liée et que le titre peut répondre.
+     * Appelé par le thread propriétaire de la session (boucle NIO ou handler bloquant).
+     */
+    StreamingServer.StreamResponse admit(RequestHead head) {
+        if (head.error == 431) {
+            return StreamingServer.StreamResponse.headerOnly(StreamingServer.errorResponse(431, "Request Header Fields Too Large"));
+        }
+        if (head.error != 0) {
+            return StreamingServer.StreamResponse.headerOnly(StreamingServer.errorResponse(400, "Bad Request"));
+        }
+        StreamingServer target = site.resolve(head);
+        if (target == null) {
+            return closing(head, StreamingServer.errorResponse(404, "Not Found"));
+        }
+        if (target != title) {
+            release();
+            if (!target.tryAcquireClient(clientIp)) {
+                return closing(head, StreamingServer.errorResponse(429, "Too Many Requests"));
+            }
+            bind(target);
+        }
+        return null;
+    }
+
+    private static StreamingServer.StreamResponse closing(RequestHead head, byte[] response) {
+        StreamingServer.StreamResponse r = StreamingServer.StreamResponse.headerOnly(response);
+        return head.method == RequestHead.METHOD_HEAD ? r.withoutBody() : r;
+    }
+
+    /** Comptabilise une réponse transmise (sent = octets réellement écrits). */
+    void onSent(StreamingServer.StreamResponse response, long sent) {
+        if (title != null && response.countsAsStream && sent > 0) {
+            bytesServed += sent;
+            title.onStreamServed(clientIp, response, sent);
+        }
+    }
+
+    void logIoError(java.io.IOException e) {
+        StreamingServer.logClientIoError(clientIp, e);
+    }
+
+    /** Libère le titre lié et enregistre la vue. */
+    void release() {
+        if (title != null) {
+            title.releaseClient(clientIp, bytesServed);
+            title = null;
+            bytesServed = 0;
+        }
+        if (shaping != null) {
+            shaping.close();
+            shaping = null;
+        }
+    }
+}
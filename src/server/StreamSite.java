@@ -0,0 +1,20 @@
+package server;
+
+/**
+ * Ce qu'un moteur HTTP (bloquant ou NIO) sert sur son port : soit un titre unique
+ * (serveur dédié), soit plusieurs titres routés par chemin (/v/{id}/...).
+ */
+interface StreamSite {
+
+    /**
+     * Titre auquel toute connexion est liée dès l'acceptation (serveur dédié),
+     * ou null si la liaison se fait à la première requête (hôte partagé).
+     */
+    StreamingServer defaultTitle();
+
+    /** Titre qui sert cette requête (préfixe /v/{id} éventuel), ou null si aucun. */
+    StreamingServer resolve(RequestHead head);
+
+    /** Libellé pour les logs et noms de threads. */
+    String describe();
+}
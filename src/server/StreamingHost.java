@@ -0,0 +1,129 @@
+package server;
+
+import common.AppConfig;
+import common.AppLogger;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Écouteur HTTP de streaming. Deux modes :
+ * <ul>
+ *   <li>dédié : un seul titre, chemins historiques (/, /stream, /thumbnail) et /v/{id}/... ;</li>
+ *   <li>partagé : plusieurs titres sur un même port, routés par /v/{id}/stream et /v/{id}/thumbnail.
+ *       Les titres sont ajoutés et retirés à chaud ; le port est libéré avec le dernier titre.</li>
+ * </ul>
+ * Le moteur (bloquant ou NIO) est choisi par streaming.engine.
+ */
+public final class StreamingHost implements StreamSite {
+    private static final String LOG = "StreamingServer";
+    static final String TITLE_PREFIX = "/v/";
+
+    // Hôtes partagés actifs par port (accès sous verrou de classe)
+    private static final Map<Integer, StreamingHost> SHARED = new HashMap<>();
+
+    private final int port;
+    private final StreamingServer dedicated;
+    private final Map<Integer, StreamingServer> titles = new ConcurrentHashMap<>();
+
+    private BlockingStreamingEngine blockingEngine;
+    private NioStreamingEngine nioEngine;
+
+    private StreamingHost(int port, StreamingServer dedicated) {
+        this.port = port;
+        this.dedicated = dedicated;
+    }
+
+    /** Démarre un écouteur réservé à un seul titre. */
+    static StreamingHost startDedicated(StreamingServer server) throws IOException {
+        StreamingHost host = new StreamingHost(server.getStreamingPort(), server);
+        host.startEngine();
+        return host;
+    }
+
+    /**
+     * Ajoute un titre à l'hôte partagé du port, en démarrant l'écouteur au premier titre.
+     * Le titre doit avoir un identifiant en base : c'est lui qui sert de clé de routage.
+     */
+    static synchronized StreamingHost attach(StreamingServer server) throws IOException {
+        int id = server.getDatabaseId();
+        if (id <= 0) {
+            throw new IllegalStateException("Port partagé indisponible sans identifiant en base: " + server.getVideoTitle());
+        }
+        int port = server.getStreamingPort();
+        StreamingHost host = SHARED.get(port);
+        if (host == null) {
+            host = new StreamingHost(port, null);
+            host.startEngine();
+            SHARED.put(port, host);
+        }
+        StreamingServer previous = host.titles.putIfAbsent(id, server);
+        if (previous != null && previous != server) {
+            throw new IllegalStateException("Titre déjà diffusé sur le port " + port + ": " + previous.getVideoTitle());
+        }
+        AppLogger.info(LOG, "Titre ajouté au port partagé " + port + ": " + server.getVideoTitle() + " → /v/" + id + "/stream");
+        return host;
+    }
+
+    /** Retire un titre ; arrête l'écouteur partagé quand c'était le dernier, ou l'écouteur dédié. */
+    void detach(StreamingServer server) {
+        if (dedicated != null) {
+            stopEngine();
+            return;
+        }
+        synchronized (StreamingHost.class) {
+            titles.remove(server.getDatabaseId(), server);
+            AppLogger.info(LOG, "Titre retiré du port partagé " + port + ": " + server.getVideoTitle());
+            if (titles.isEmpty()) release();
+        }
+    }
+
+    @Override
+    public StreamingServer defaultTitle() {
+        return dedicated;
+    }
+
+    @Override
+    public StreamingServer resolve(RequestHead head) {
+        int id = head.titleId;
+        if (dedicated != null) {
+            return id < 0 || id == dedicated.getDatabaseId() ? dedicated : null;
+        }
+        return id < 0 ? null : titles.get(id);
+    }
+
+    @Override
+    public String describe() {
+        return dedicated != null ? dedicated.getVideoTitle() : "port partagé (" + titles.size() + " titre(s))";
+    }
+
+    private void release() {
+        SHARED.remove(port, this);
+        stopEngine();
+    }
+
+    private void startEngine() throws IOException {
+        AppConfig cfg = AppConfig.get();
+        if (StreamingServer.ENGINE_NIO.equals(cfg.getStreamingEngine())) {
+            NioStreamingEngine engine = new NioStreamingEngine(this, port, cfg.getStreamingNioThreads());
+            engine.start();
+            nioEngine = engine;
+        } else {
+            BlockingStreamingEngine engine = new BlockingStreamingEngine(this, port);
+            engine.start();
+            blockingEngine = engine;
+        }
+    }
+
+    private void stopEngine() {
+        if (nioEngine != null) {
+            nioEngine.stop();
+            nioEngine = null;
+        }
+        if (blockingEngine != null) {
+            blockingEngine.stop();
+            blockingEngine = null;
+        }
+    }
+}
@@ -3,45 +3,42 @@ package server;
 import common.AppLogger;
 import db.DatabaseManager;
 import db.VideoMetadata;
+import db.VideoCounters;
 import db.VideoRepository;
-import db.StatsRepository;
+import db.ViewEventWriter;
 import diary.Diary;
 import server.api.AdminApiServer;
 import server.sse.SseEventBus;
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.ServerSocket;
-import java.net.Socket;
 import java.nio.charset.StandardCharsets;
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Serveur de streaming d'un fichier vidéo via HTTP.
  * Améliorations : persistance H2, stats de vues, rate limiting, SSE, AppLogger.
+ * Le titre dispose soit de son propre port, soit d'une place sur un port partagé
+ * (StreamingHost) où il est servi sous /v/{id}/stream.
  */
 public class StreamingServer {
     private static final String LOG = "StreamingServer";
-    private static final Pattern RANGE_PATTERN = Pattern.compile("bytes=(\\d*)-(\\d*)", Pattern.CASE_INSENSITIVE);
-    private static final int BUFFER_SIZE = 65536; // 64KB for better throughput
+    static final String ENGINE_NIO = "nio";
 
     // Global active stream counter (shared across instances)
     private static final AtomicInteger globalActiveCount = new AtomicInteger(0);
@@ -54,6 +51,9 @@ public class StreamingServer {
     private final String streamingHost;
     private final Object thumbnailLock = new Object();
     private final int maxConnectionsPerIp;
+    private final boolean sharedPort;
+    private final int keepAliveTimeoutMs;
+    private final int keepAliveMaxRequests;
 
     // Rate limiting: IP -> active connection count
     private final Map<String, AtomicInteger> ipConnectionCounts = new ConcurrentHashMap<>();
@@ -61,10 +61,12 @@ public class StreamingServer {
     private final AtomicLong totalBytesServed = new AtomicLong(0);
     private final AtomicInteger activeConnections = new AtomicInteger(0);
     private volatile int databaseId = -1;
+    private volatile int bitrateKbps;
+    // ETag / Last-Modified du fichier, recalculés seulement si taille ou date changent
+    private volatile FileValidators validators;
 
     private volatile boolean running;
-    private ServerSocket serverSocket;
-    private ExecutorService pool;
+    private StreamingHost listener;
 
     public StreamingServer(
         File videoFile,
@@ -73,6 +75,22 @@ public class StreamingServer {
         String diaryHost,
         int diaryPort,
         String streamingHost
+    ) {
+        this(videoFile, videoTitle, streamingPort, false, diaryHost, diaryPort, streamingHost);
+    }
+
+    /**
+     * @param sharedPort true pour servir ce titre sur l'écouteur partagé du port
+     *                   (plusieurs titres par port, routage /v/{id}/...)
+     */
+    public StreamingServer(
+        File videoFile,
+        String videoTitle,
+        int streamingPort,
+        boolean sharedPort,
+        String diaryHost,
+        int diaryPort,
+        String streamingHost
     ) {
         this.videoFile = videoFile;
         this.videoTitle = normalizeNonEmpty(videoTitle, "videoTitle");
@@ -81,6 +99,9 @@ public class StreamingServer {
         this.diaryPort = validatePort(diaryPort, "diaryPort");
         this.streamingHost = normalizeNonEmpty(streamingHost, "streamingHost");
         this.maxConnectionsPerIp = common.AppConfig.get().getMaxConnectionsPerIp();
+        this.sharedPort = sharedPort;
+        this.keepAliveTimeoutMs = common.AppConfig.get().getStreamingKeepAliveTimeoutMs();
+        this.keepAliveMaxRequests = common.AppConfig.get().getStreamingKeepAliveMaxRequests();
     }
 
     public synchronized void start() throws Exception {
@@ -91,21 +112,25 @@ public class StreamingServer {
 
         // Extract & persist metadata via ffprobe
         persistMetadata();
+        if (sharedPort && databaseId <= 0) {
+            // Sur un port partagé, l'identifiant en base est la clé de routage /v/{id}
+            throw new IllegalStateException("Port partagé indisponible : métadonnées non persistées pour " + videoTitle);
+        }
 
         registerInDiary();
 
+        try {
+            listener = sharedPort ? StreamingHost.attach(this) : StreamingHost.startDedicated(this);
+        } catch (IOException | RuntimeException e) {
+            unregisterFromDiary();
+            throw e;
+        }
         running = true;
-        pool = Executors.newCachedThreadPool();
         globalActiveCount.incrementAndGet();
         AdminApiServer.setActiveStreamCount(globalActiveCount.get());
 
-        Thread serverThread = new Thread(this::acceptLoop, "streaming-server-" + streamingPort);
-        serverThread.setDaemon(true);
-        serverThread.start();
-
         // Notify SSE clients
-        SseEventBus.get().publishStreamStarted(videoTitle,
-            "http://" + streamingHost + ":" + streamingPort);
+        SseEventBus.get().publishStreamStarted(videoTitle, getStreamUrl());
     }
 
     public synchronized void stop() {
@@ -116,13 +141,11 @@ public class StreamingServer {
 
         try {
             unregisterFromDiary();
-            if (serverSocket != null && !serverSocket.isClosed()) {
-                serverSocket.close();
+            if (listener != null) {
+                listener.detach(this);
+                listener = null;
             }
-        } catch (IOException e) {
-            AppLogger.warn(LOG, "Erreur fermeture socket: " + e.getMessage());
         } finally {
-            stopPool();
             globalActiveCount.decrementAndGet();
             AdminApiServer.setActiveStreamCount(globalActiveCount.get());
             SseEventBus.get().publishStreamStopped(videoTitle);
@@ -142,176 +165,172 @@ public class StreamingServer {
         return streamingPort;
     }
 
-    private void acceptLoop() {
-        try {
-            serverSocket = new ServerSocket(streamingPort);
-            AppLogger.info(LOG, "En écoute port " + streamingPort + " — " + videoTitle);
-
-            while (running) {
-                try {
-                    Socket clientSocket = serverSocket.accept();
-                    pool.submit(() -> handleClient(clientSocket));
-                } catch (IOException e) {
-                    if (running) AppLogger.warn(LOG, "Erreur acceptation: " + e.getMessage());
-                }
-            }
-        } catch (IOException e) {
-            if (running) AppLogger.error(LOG, "Erreur démarrage HTTP: " + e.getMessage());
-        } finally {
-            stopPool();
-        }
+    public boolean isSharedPort() {
+        return sharedPort;
     }
 
-    private void handleClient(Socket clientSocket) {
-        String clientIp = clientSocket.getInetAddress().getHostAddress();
+    /** URL de lecture : /v/{id}/stream dès que le titre est connu en base. */
+    public String getStreamUrl() {
+        String base = "http://" + streamingHost + ":" + streamingPort;
+        return databaseId > 0 ? base + StreamingHost.TITLE_PREFIX + databaseId + "/stream" : base;
+    }
 
-        // Rate limiting
+    /**
+     * Réserve un créneau pour une nouvelle connexion cliente (limite par IP).
+     * Retourne false si la limite est atteinte ; dans ce cas rien n'est compté.
+     */
+    boolean tryAcquireClient(String clientIp) {
         AtomicInteger ipCount = ipConnectionCounts.computeIfAbsent(clientIp, k -> new AtomicInteger(0));
         if (ipCount.incrementAndGet() > maxConnectionsPerIp) {
             ipCount.decrementAndGet();
             AppLogger.warn(LOG, "Rate limit atteint pour IP: " + clientIp);
-            try {
-                OutputStream out = clientSocket.getOutputStream();
-                sendError(out, 429, "Too Many Requests");
-                clientSocket.close();
-            } catch (IOException ignored) {}
-            return;
+            return false;
         }
-
         activeConnections.incrementAndGet();
         AppLogger.info(LOG, "Client connecté: " + clientIp + " → " + videoTitle);
+        return true;
+    }
 
-        long bytesServedThisSession = 0;
-        try (Socket socket = clientSocket;
-             BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
-             OutputStream out = socket.getOutputStream()) {
-
-            String requestLine = reader.readLine();
-            if (requestLine == null || requestLine.isBlank()) {
-                sendError(out, 400, "Bad Request");
-                return;
-            }
-
-            String[] requestTokens = requestLine.split("\\s+");
-            if (requestTokens.length < 3) {
-                sendError(out, 400, "Bad Request");
-                return;
-            }
-
-            String method = requestTokens[0].toUpperCase(Locale.ROOT);
-            if (!"GET".equals(method)) {
-                sendError(out, 405, "Method Not Allowed");
-                return;
-            }
-
-            String path = extractPath(requestTokens[1]);
-
-            String rangeHeader = null;
-            String line;
-            while ((line = reader.readLine()) != null && !line.isEmpty()) {
-                int idx = line.indexOf(':');
-                if (idx <= 0) {
-                    continue;
-                }
-                String headerName = line.substring(0, idx).trim();
-                String headerValue = line.substring(idx + 1).trim();
-                if ("range".equalsIgnoreCase(headerName)) {
-                    rangeHeader = headerValue;
-                }
-            }
+    /** Libère le créneau réservé par tryAcquireClient et enregistre la vue. */
+    void releaseClient(String clientIp, long bytesServedThisSession) {
+        AtomicInteger ipCount = ipConnectionCounts.get(clientIp);
+        if (ipCount != null) ipCount.decrementAndGet();
+        activeConnections.decrementAndGet();
+        // Vue comptée en mémoire et écrite par lot, jamais sur le thread du flux
+        if (bytesServedThisSession > 0 && databaseId > 0) {
+            ViewEventWriter.get().recordView(databaseId, hashIp(clientIp), bytesServedThisSession);
+            VideoCounters.get().incrementViews(databaseId);
+        }
+    }
 
-            if ("/thumbnail".equals(path)) {
-                serveThumbnail(out);
-                return;
-            }
+    /** Comptabilise une réponse vidéo entièrement transmise. */
+    void onStreamServed(String clientIp, StreamResponse response, long served) {
+        totalBytesServed.addAndGet(served);
+        String range = response.parts != null
+            ? response.parts.length + " plages"
+            : response.bodyStart + "-" + (response.bodyStart + response.bodyLength - 1);
+        AppLogger.info(LOG, "Streaming terminé: " + clientIp + " bytes=" + served + " range=" + range);
+    }
 
-            if (!"/".equals(path) && !"/stream".equals(path)) {
-                sendError(out, 404, "Not Found");
-                return;
-            }
+    static void logClientIoError(String clientIp, IOException e) {
+        String msg = e.getMessage();
+        if (msg != null && (msg.contains("Connection reset by peer") || msg.contains("Broken pipe"))) {
+            AppLogger.info(LOG, "Client déconnecté (seek): " + clientIp);
+        } else {
+            AppLogger.warn(LOG, "Erreur streaming: " + e.getMessage());
+        }
+    }
 
-            long fileLength = videoFile.length();
-            Range range = resolveRange(rangeHeader, fileLength);
-            if (range == null) {
-                sendRangeNotSatisfiable(out, fileLength);
-                return;
-            }
+    /**
+     * Construit la réponse à une requête déjà analysée. Ne fait aucune écriture
+     * réseau : le moteur (bloquant ou NIO) se charge ensuite de transmettre
+     * en-têtes et corps. Le préfixe /v/{id} éventuel est retiré du chemin.
+     *
+     * keepAliveAllowed vaut false quand la connexion a atteint son quota de requêtes ;
+     * la réponse porte alors Connection: close quelle que soit la demande du client.
+     */
+    StreamResponse prepareResponse(RequestHead head, boolean keepAliveAllowed) {
+        boolean keepAlive = keepAliveAllowed && head.wantsKeepAlive();
+        StreamResponse response = prepareGet(head, keepAlive);
+        // HEAD : mêmes en-têtes (Content-Length compris) que le GET équivalent, sans corps
+        return head.method == RequestHead.METHOD_HEAD ? response.withoutBody() : response;
+    }
 
-            int status = range.isPartial ? 206 : 200;
-            out.write(buildHttpHeader(status, fileLength, range.start, range.end).getBytes(StandardCharsets.US_ASCII));
-            long served = streamFile(out, range.start, range.end);
-            bytesServedThisSession += served;
-            totalBytesServed.addAndGet(served);
+    private StreamResponse prepareGet(RequestHead head, boolean keepAlive) {
+        if (head.method != RequestHead.METHOD_GET && head.method != RequestHead.METHOD_HEAD) {
+            return StreamResponse.headerOnly(methodNotAllowed(keepAlive), keepAlive);
+        }
 
-            AppLogger.info(LOG, "Streaming terminé: " + clientIp
-                + " bytes=" + served + " range=" + range.start + "-" + range.end);
+        if (head.route == RequestHead.ROUTE_THUMBNAIL) {
+            return prepareThumbnail(keepAlive);
+        }
 
-        } catch (IOException e) {
-            String msg = e.getMessage();
-            if (msg != null && (msg.contains("Connection reset by peer") || msg.contains("Broken pipe"))) {
-                AppLogger.info(LOG, "Client déconnecté (seek): " + clientIp);
-            } else {
-                AppLogger.warn(LOG, "Erreur streaming: " + e.getMessage());
-            }
-        } finally {
-            ipCount.decrementAndGet();
-            activeConnections.decrementAndGet();
-            // Record view event asynchronously
-            if (bytesServedThisSession > 0 && databaseId > 0) {
-                final long bytes = bytesServedThisSession;
-                final String ipHash = hashIp(clientIp);
-                Thread.ofVirtual().start(() -> {
-                    try {
-                        new StatsRepository().recordView(databaseId, ipHash, bytes);
-                        new VideoRepository().incrementViewCount(databaseId);
-                    } catch (Exception ignored) {}
-                });
-            }
+        if (head.route != RequestHead.ROUTE_ROOT && head.route != RequestHead.ROUTE_STREAM) {
+            return StreamResponse.headerOnly(errorResponse(404, "Not Found", keepAlive), keepAlive);
         }
-    }
 
-    private String extractPath(String rawTarget) {
-        if (rawTarget == null || rawTarget.isBlank()) {
-            return "/";
+        FileValidators v;
+        try {
+            v = validators = FileValidators.current(validators, videoFile.toPath());
+        } catch (IOException e) {
+            AppLogger.warn(LOG, "Fichier vidéo illisible: " + e.getMessage());
+            return StreamResponse.headerOnly(errorResponse(404, "Not Found", keepAlive), keepAlive);
         }
-        String target = rawTarget.trim();
-        if (target.startsWith("http://") || target.startsWith("https://")) {
-            int slashIdx = target.indexOf('/', target.indexOf("://") + 3);
-            target = slashIdx >= 0 ? target.substring(slashIdx) : "/";
+        if (v.notModified(head.source, head.ifNoneMatchStart, head.ifNoneMatchEnd, head.ifModifiedSince)) {
+            return StreamResponse.headerOnly(notModified(v, keepAlive), keepAlive);
         }
-        int qIdx = target.indexOf('?');
-        if (qIdx >= 0) {
-            target = target.substring(0, qIdx);
+
+        long fileLength = v.getLength();
+        // If-Range périmé : la plage visait une autre version du fichier, on renvoie tout
+        boolean rangeValid = v.rangeStillValid(head.source, head.ifRangeStart, head.ifRangeEnd);
+        List<Range> ranges = resolveRanges(head, fileLength, rangeValid);
+        if (ranges.isEmpty()) {
+            return StreamResponse.headerOnly(rangeNotSatisfiable(fileLength, keepAlive), keepAlive);
         }
-        if (target.isEmpty()) {
-            target = "/";
+        if (ranges.size() > 1) {
+            return prepareMultipart(ranges, v, keepAlive);
         }
-        return target;
+
+        Range range = ranges.get(0);
+        int status = range.isPartial ? 206 : 200;
+        byte[] header = buildHttpHeader(status, v, range.start, range.end, keepAlive).getBytes(StandardCharsets.US_ASCII);
+        return new StreamResponse(header, videoFile, range.start, range.end - range.start + 1, true, keepAlive);
+    }
+
+    /**
+     * Réponse multipart/byteranges : chaque partie est précédée de sa frontière et de
+     * son Content-Range ; Content-Length couvre l'ensemble, frontière finale comprise.
+     */
+    private StreamResponse prepareMultipart(List<Range> ranges, FileValidators v, boolean keepAlive) {
+        long fileLength = v.getLength();
+        String boundary = Long.toHexString(ThreadLocalRandom.current().nextLong() | Long.MIN_VALUE);
+        String contentType = getContentType();
+        StreamResponse.Part[] parts = new StreamResponse.Part[ranges.size()];
+        long contentLength = 0;
+        for (int i = 0; i < parts.length; i++) {
+            Range range = ranges.get(i);
+            String prefix = (i == 0 ? "" : "\r\n") + "--" + boundary + "\r\n"
+                + "Content-Type: " + contentType + "\r\n"
+                + "Content-Range: bytes " + range.start + '-' + range.end + '/' + fileLength + "\r\n\r\n";
+            parts[i] = new StreamResponse.Part(prefix.getBytes(StandardCharsets.US_ASCII), range.start, range.end - range.start + 1);
+            contentLength += parts[i].prefix().length + parts[i].length();
+        }
+        byte[] trailer = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        contentLength += trailer.length;
+
+        String header = "HTTP/1.1 206 Partial Content\r\n"
+            + "Content-Type: multipart/byteranges; boundary=" + boundary + "\r\n"
+            + "Accept-Ranges: bytes\r\n"
+            + validatorHeaders(v)
+            + connectionHeader(keepAlive)
+            + "Content-Length: " + contentLength + "\r\n\r\n";
+        return StreamResponse.multipart(header.getBytes(StandardCharsets.US_ASCII), videoFile, parts, trailer, keepAlive);
     }
 
-    private void serveThumbnail(OutputStream out) throws IOException {
+    /**
+     * Indique si la préparation de la réponse peut bloquer longtemps
+     * (génération ffmpeg de la miniature) et doit sortir de la boucle d'événements.
+     */
+    boolean requiresBlockingPreparation(RequestHead head) {
+        if (head.route != RequestHead.ROUTE_THUMBNAIL) return false;
+        File cacheFile = thumbnailCacheFile();
+        return !(cacheFile.exists() && cacheFile.length() > 0 && cacheFile.lastModified() >= videoFile.lastModified());
+    }
+
+    private StreamResponse prepareThumbnail(boolean keepAlive) {
         File thumbnailFile = ensureThumbnailFile();
         if (thumbnailFile == null || !thumbnailFile.exists() || thumbnailFile.length() == 0) {
-            sendError(out, 503, "Thumbnail Unavailable (ffmpeg requis)");
-            return;
+            return StreamResponse.headerOnly(errorResponse(503, "Thumbnail Unavailable (ffmpeg requis)", keepAlive), keepAlive);
         }
 
+        long length = thumbnailFile.length();
         String header = "HTTP/1.1 200 OK\r\n"
             + "Content-Type: image/jpeg\r\n"
             + "Cache-Control: public, max-age=300\r\n"
-            + "Connection: close\r\n"
-            + "Content-Length: " + thumbnailFile.length() + "\r\n\r\n";
-
-        out.write(header.getBytes(StandardCharsets.US_ASCII));
+            + connectionHeader(keepAlive)
+            + "Content-Length: " + length + "\r\n\r\n";
 
-        try (FileInputStream fis = new FileInputStream(thumbnailFile)) {
-            byte[] buffer = new byte[BUFFER_SIZE];
-            int read;
-            while ((read = fis.read(buffer)) != -1) {
-                out.write(buffer, 0, read);
-            }
-            out.flush();
-        }
+        return new StreamResponse(header.getBytes(StandardCharsets.US_ASCII), thumbnailFile, 0, length, false, keepAlive);
     }
 
     private File ensureThumbnailFile() {
@@ -426,87 +445,73 @@ public class StreamingServer {
         return port;
     }
 
-    private void stopPool() {
-        if (pool == null || pool.isShutdown()) {
-            return;
+    /**
+     * Plages à servir, triées et fusionnées quand elles se chevauchent ou se touchent.
+     * Sans Range (ou If-Range périmé) : le fichier entier (non partiel). Liste vide : aucune plage satisfaisable (416).
+     */
+    private List<Range> resolveRanges(RequestHead head, long fileLength, boolean rangeValid) {
+        if (head.rangeState == RequestHead.RANGE_NONE || !rangeValid) {
+            return List.of(new Range(0, fileLength - 1, false));
         }
-
-        pool.shutdown();
-        try {
-            if (!pool.awaitTermination(5, TimeUnit.SECONDS)) {
-                pool.shutdownNow();
-            }
-        } catch (InterruptedException e) {
-            pool.shutdownNow();
-            Thread.currentThread().interrupt();
+        if (head.rangeState == RequestHead.RANGE_INVALID) {
+            return List.of();
         }
-    }
 
-    private Range resolveRange(String headerValue, long fileLength) {
-        if (headerValue == null || headerValue.isBlank()) {
-            return new Range(0, fileLength - 1, false);
+        List<Range> ranges = new ArrayList<>(head.rangeCount);
+        for (int i = 0; i < head.rangeCount; i++) {
+            Range range = resolveRange(head.rangeFirst[i], head.rangeLast[i], fileLength);
+            if (range != null) ranges.add(range);
         }
-
-        Matcher matcher = RANGE_PATTERN.matcher(headerValue);
-        if (!matcher.find()) {
-            return new Range(0, fileLength - 1, false);
+        if (ranges.size() < 2) {
+            return ranges;
         }
 
-        String startStr = matcher.group(1);
-        String endStr = matcher.group(2);
+        ranges.sort(Comparator.comparingLong(range -> range.start));
+        List<Range> merged = new ArrayList<>(ranges.size());
+        Range current = ranges.get(0);
+        for (int i = 1; i < ranges.size(); i++) {
+            Range next = ranges.get(i);
+            if (next.start <= current.end + 1) {
+                current = new Range(current.start, Math.max(current.end, next.end), true);
+            } else {
+                merged.add(current);
+                current = next;
+            }
+        }
+        merged.add(current);
+        return merged;
+    }
 
-        try {
-            long start;
-            long end;
+    /** Une plage first-last (first = -1 : suffixe, last = -1 : jusqu'à la fin) ; null si insatisfaisable. */
+    private static Range resolveRange(long first, long last, long fileLength) {
+        long start;
+        long end;
+        if (first < 0) {
+            long suffixLength = last;
+            if (suffixLength <= 0 || fileLength == 0) {
+                return null;
+            }
+            suffixLength = Math.min(suffixLength, fileLength);
+            start = fileLength - suffixLength;
+            end = fileLength - 1;
+        } else {
+            start = first;
+            if (start >= fileLength) {
+                return null;
+            }
 
-            if (startStr == null || startStr.isEmpty()) {
-                long suffixLength = Long.parseLong(endStr);
-                if (suffixLength <= 0) {
-                    return null;
-                }
-                suffixLength = Math.min(suffixLength, fileLength);
-                start = fileLength - suffixLength;
+            if (last < 0) {
                 end = fileLength - 1;
             } else {
-                start = Long.parseLong(startStr);
-                if (start >= fileLength || start < 0) {
+                end = last;
+                if (end < start) {
                     return null;
                 }
-
-                if (endStr == null || endStr.isEmpty()) {
-                    end = fileLength - 1;
-                } else {
-                    end = Long.parseLong(endStr);
-                    if (end < start) {
-                        return null;
-                    }
-                    end = Math.min(end, fileLength - 1);
-                }
-            }
-
-            return new Range(start, end, true);
-        } catch (NumberFormatException e) {
-            return null;
-        }
-    }
-
-    private long streamFile(OutputStream out, long start, long end) throws IOException {
-        long totalServed = 0;
-        try (FileInputStream fis = new FileInputStream(videoFile)) {
-            fis.skipNBytes(start);
-            byte[] buffer = new byte[BUFFER_SIZE];
-            long remaining = end - start + 1;
-            while (remaining > 0) {
-                int toRead = (int) Math.min(buffer.length, remaining);
-                int bytesRead = fis.read(buffer, 0, toRead);
-                if (bytesRead < 0) break;
-                out.write(buffer, 0, bytesRead);
-                remaining -= bytesRead;
-                totalServed += bytesRead;
+                end = Math.min(end, fileLength - 1);
             }
-            out.flush();
         }
-        return totalServed;
+
+        return new Range(start, end, true);
     }
 
     /** Persist video metadata to H2 via ffprobe, store databaseId for stats */
@@ -521,6 +526,7 @@ public class StreamingServer {
             vm.setActive(true);
             // Extract metadata via ffprobe
             FfprobeExtractor.extract(videoFile, vm);
+            bitrateKbps = vm.getBitrateKbps();
             databaseId = repo.upsert(vm);
             AppLogger.info(LOG, "Métadonnées persistées en base (id=" + databaseId + ")");
         } catch (Exception e) {
@@ -545,6 +551,12 @@ public class StreamingServer {
     public long getTotalBytesServed()  { return totalBytesServed.get(); }
     public int  getActiveConnections() { return activeConnections.get(); }
     public int  getDatabaseId()        { return databaseId; }
+    int getBitrateKbps()               { return bitrateKbps; }
+
+    /** Clé du seau de débit par titre, commune au streaming et à /api/media. */
+    String shapingKey() {
+        return videoFile.getAbsolutePath();
+    }
 
     private String getContentType() {
         String fileName = videoFile.getName().toLowerCase(Locale.ROOT);
@@ -566,15 +578,17 @@ public class StreamingServer {
         return "application/octet-stream";
     }
 
-    private String buildHttpHeader(int statusCode, long fileLength, long start, long end) {
+    private String buildHttpHeader(int statusCode, FileValidators v, long start, long end, boolean keepAlive) {
         String statusMessage = statusCode == 206 ? "Partial Content" : "OK";
+        long fileLength = v.getLength();
         long contentLength = end - start + 1;
 
         StringBuilder header = new StringBuilder();
         header.append("HTTP/1.1 ").append(statusCode).append(' ').append(statusMessage).append("\r\n");
         header.append("Content-Type: ").append(getContentType()).append("\r\n");
         header.append("Accept-Ranges: bytes\r\n");
-        header.append("Connection: close\r\n");
+        header.append(validatorHeaders(v));
+        header.append(connectionHeader(keepAlive));
         header.append("Content-Length: ").append(contentLength).append("\r\n");
 
         if (statusCode == 206) {
@@ -585,22 +599,62 @@ public class StreamingServer {
         return header.toString();
     }
 
-    private void sendError(OutputStream out, int code, String message) throws IOException {
+    static byte[] errorResponse(int code, String message) {
+        return errorResponse(code, message, "Connection: close\r\n");
+    }
+
+    private byte[] errorResponse(int code, String message, boolean keepAlive) {
+        return errorResponse(code, message, connectionHeader(keepAlive));
+    }
+
+    private static byte[] errorResponse(int code, String message, String connectionHeader) {
         String body = code + " " + message + "\n";
         String response = "HTTP/1.1 " + code + " " + message + "\r\n"
             + "Content-Type: text/plain; charset=utf-8\r\n"
-            + "Connection: close\r\n"
+            + connectionHeader
             + "Content-Length: " + body.getBytes(StandardCharsets.UTF_8).length + "\r\n\r\n"
             + body;
-        out.write(response.getBytes(StandardCharsets.UTF_8));
+        return response.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Validateurs ; no-cache : les caches (CDN, navigateur) gardent la vidéo mais revalident. */
+    private static String validatorHeaders(FileValidators v) {
+        return "ETag: " + v.getEtag() + "\r\n"
+            + "Last-Modified: " + v.getLastModifiedHttp() + "\r\n"
+            + "Cache-Control: public, no-cache\r\n";
+    }
+
+    private byte[] notModified(FileValidators v, boolean keepAlive) {
+        String response = "HTTP/1.1 304 Not Modified\r\n"
+            + validatorHeaders(v)
+            + connectionHeader(keepAlive)
+            + "\r\n";
+        return response.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private byte[] methodNotAllowed(boolean keepAlive) {
+        String body = "405 Method Not Allowed\n";
+        String response = "HTTP/1.1 405 Method Not Allowed\r\n"
+            + "Allow: GET, HEAD\r\n"
+            + "Content-Type: text/plain; charset=utf-8\r\n"
+            + connectionHeader(keepAlive)
+            + "Content-Length: " + body.length() + "\r\n\r\n"
+            + body;
+        return response.getBytes(StandardCharsets.US_ASCII);
     }
 
-    private void sendRangeNotSatisfiable(OutputStream out, long fileLength) throws IOException {
+    private byte[] rangeNotSatisfiable(long fileLength, boolean keepAlive) {
         String response = "HTTP/1.1 416 Range Not Satisfiable\r\n"
             + "Content-Range: bytes */" + fileLength + "\r\n"
-            + "Connection: close\r\n"
+            + connectionHeader(keepAlive)
             + "Content-Length: 0\r\n\r\n";
-        out.write(response.getBytes(StandardCharsets.US_ASCII));
+        return response.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private String connectionHeader(boolean keepAlive) {
+        if (!keepAlive) return "Connection: close\r\n";
+        return "Connection: keep-alive\r\n"
+            + "Keep-Alive: timeout=" + Math.max(1, keepAliveTimeoutMs / 1000) + ", max=" + keepAliveMaxRequests + "\r\n";
     }
 
     private void registerInDiary() throws Exception {
@@ -626,6 +680,70 @@ public class StreamingServer {
         }
     }
 
+    /**
+     * Réponse préparée : en-têtes déjà encodés + tranche de fichier éventuelle.
+     * countsAsStream distingue la vidéo (comptée dans les stats) des annexes (miniature) ;
+     * keepAlive indique si la connexion reste ouverte après cette réponse.
+     *
+     * Réponse multipart : parts non null, chaque partie = en-têtes de partie puis tranche
+     * du fichier, et trailer (frontière finale) après la dernière. bodyLength compte alors
+     * les seuls octets du fichier.
+     */
+    static final class StreamResponse {
+        final byte[] header;
+        final File bodyFile;
+        final long bodyStart;
+        final long bodyLength;
+        final boolean countsAsStream;
+        final boolean keepAlive;
+        final Part[] parts;
+        final byte[] trailer;
+
+        StreamResponse(byte[] header, File bodyFile, long bodyStart, long bodyLength, boolean countsAsStream, boolean keepAlive) {
+            this(header, bodyFile, bodyStart, bodyLength, countsAsStream, keepAlive, null, null);
+        }
+
+        private StreamResponse(byte[] header, File bodyFile, long bodyStart, long bodyLength, boolean countsAsStream,
+                               boolean keepAlive, Part[] parts, byte[] trailer) {
+            this.header = header;
+            this.bodyFile = bodyFile;
+            this.bodyStart = bodyStart;
+            this.bodyLength = bodyLength;
+            this.countsAsStream = countsAsStream;
+            this.keepAlive = keepAlive;
+            this.parts = parts;
+            this.trailer = trailer;
+        }
+
+        static StreamResponse multipart(byte[] header, File bodyFile, Part[] parts, byte[] trailer, boolean keepAlive) {
+            long length = 0;
+            for (Part part : parts) length += part.length();
+            return new StreamResponse(header, bodyFile, parts[0].start(), length, true, keepAlive, parts, trailer);
+        }
+
+        /** Réponse à un HEAD : en-têtes inchangés, corps supprimé (y compris celui d'une erreur). */
+        StreamResponse withoutBody() {
+            int end = RequestHead.headerEnd(header, 0, header.length);
+            byte[] headOnly = end < 0 || end + 4 == header.length ? header : Arrays.copyOf(header, end + 4);
+            return headerOnly(headOnly, keepAlive);
+        }
+
+        static StreamResponse headerOnly(byte[] header) {
+            return headerOnly(header, false);
+        }
+
+        static StreamResponse headerOnly(byte[] header, boolean keepAlive) {
+            return new StreamResponse(header, null, 0, 0, false, keepAlive);
+        }
+
+        boolean hasBody() {
+            return bodyFile != null && bodyLength > 0;
+        }
+
+        /** Partie d'une réponse multipart/byteranges. */
+        record Part(byte[] prefix, long start, long length) {}
+    }
+
     private static final class Range {
         private final long start;
         private final long end;
@@ -1,19 +1,27 @@
 package server.api;
 
+import com.sun.net.httpserver.Headers;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpServer;
 import common.AppConfig;
 import common.AppLogger;
 import db.*;
+import server.BandwidthShaper;
+import server.ConnectionExecutors;
 import server.FfprobeExtractor;
+import server.FileValidators;
+import server.SegmentCache;
 import server.auth.AuthApiServer;
 import server.sse.SseEventBus;
 import server.sse.SseEventBus.SseClient;
+import server.sse.SseFilter;
 
 import java.io.*;
 import java.net.InetSocketAddress;
 import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.channels.Channels;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -25,8 +33,11 @@ import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.sql.Types;
 import java.nio.charset.Charset;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -38,6 +49,7 @@ import java.util.function.Supplier;
  * Endpoints publics :
  *   GET  /api/videos                — liste toutes les vidéos actives (enrichie)
  *   GET  /api/videos/search?q=...   — recherche full-text
+ *   GET  /api/videos/suggest?q=...[&limit=8] — suggestions de saisie (titres, tags, catégories)
  *   GET  /api/categories            — liste des catégories
  *   GET  /api/health                — santé de l'application
  *   GET  /api/events                — SSE stream temps réel
@@ -54,6 +66,8 @@ import java.util.function.Supplier;
  *   DELETE /api/admin/categories/{id}
  *   GET    /api/admin/stats          — dashboard stats
  *   GET    /api/admin/stats/hourly   — vues dernières 24h
+ *   GET    /api/admin/stats/export?from=AAAA-MM-JJ&to=AAAA-MM-JJ[&videoId=]
+ *                                    — vues brutes en CSV (archives + base)
  */
 public final class AdminApiServer {
 
@@ -62,8 +76,10 @@ public final class AdminApiServer {
     private static final AtomicInteger activeClientStreams = new AtomicInteger(0);
     private static final ConcurrentMap<Integer, AtomicInteger> viewersPerVideo = new ConcurrentHashMap<>();
     private static final ConcurrentMap<String, AtomicInteger> mediaIpConnections = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<Integer, FileValidators> mediaValidators = new ConcurrentHashMap<>();
     private static volatile int maxConcurrentClients = AppConfig.get().getMaxConcurrentClients();
     private static volatile int maxConnectionsPerIp = AppConfig.get().getMaxConnectionsPerIp();
+    private static volatile ConnectionExecutors.Admission httpAdmission;
 
     private AdminApiServer() {}
 
@@ -75,16 +91,20 @@ public final class AdminApiServer {
 
         // Init DB
         DatabaseManager.getInstance();
+        ViewArchiver.get().start();
         reloadRuntimeSettings();
 
         // Wire AppLogger → SSE log stream
-        AppLogger.setListener(entry -> SseEventBus.get().publishLogEntry(entry.toJson()));
+        AppLogger.setListener(entry -> SseEventBus.get().publishLogEntry(entry));
+        VideoCatalogCache.get().setListener(id -> SseEventBus.get().publishVideoUpdated(id));
 
-        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+        HttpServer server = ConnectionExecutors.newHttpServer(new InetSocketAddress(port), "admin-api");
+        httpAdmission = ConnectionExecutors.admissionOf(server);
 
         // ── Public endpoints ───────────────────────────────────────────────
         server.createContext("/api/videos",     new VideosHandler());
         server.createContext("/api/videos/highlights", new VideoHighlightsHandler());
+        server.createContext("/api/videos/suggest", new VideoSuggestHandler());
         server.createContext("/api/categories", new CategoriesHandler());
         server.createContext("/api/health",     new HealthHandler());
         server.createContext("/api/media",      new MediaHandler());
@@ -105,8 +125,6 @@ public final class AdminApiServer {
         server.createContext("/api/admin/settings",      new AdminSettingsHandler());
         server.createContext("/api/admin/plans",         new AdminPlansHandler());
 
-        server.setExecutor(Executors.newCachedThreadPool());
-
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             AppLogger.info(LOG, "Arrêt AdminApiServer...");
             server.stop(1);
@@ -137,18 +155,84 @@ public final class AdminApiServer {
             } else if (catStr != null) {
                 try { videos = repo.findByCategory(Integer.parseInt(catStr)); }
                 catch (NumberFormatException e) { videos = repo.findActive(); }
+            } else if (VideoCatalogCache.get().isEnabled()) {
+                sendSnapshot(ex, CatalogSnapshot.current());
+                return;
             } else {
                 videos = repo.findActive();
             }
+            sendJson(ex, 200, new String(CatalogSnapshot.render(videos), StandardCharsets.UTF_8));
+        }
 
-            StringBuilder sb = new StringBuilder();
-            sb.append("{\"count\":").append(videos.size()).append(",\"videos\":[");
-            for (int i = 0; i < videos.size(); i++) {
-                if (i > 0) sb.append(',');
-                sb.append(JsonBuilder.videoToJson(videos.get(i)));
+        /** Catalogue pré-sérialisé : 304 si l'ETag correspond, gzip si le client l'accepte. */
+        private static void sendSnapshot(HttpExchange ex, CatalogSnapshot snapshot) throws IOException {
+            addCors(ex);
+            boolean gzip = acceptsGzip(ex.getRequestHeaders().getFirst("Accept-Encoding"));
+            String etag = gzip ? snapshot.gzipEtag : snapshot.etag;
+            Headers h = ex.getResponseHeaders();
+            h.set("ETag", etag);
+            h.set("Cache-Control", "no-cache");
+            h.set("Vary", "Accept-Encoding");
+            if (FileValidators.noneMatch(ex.getRequestHeaders().getFirst("If-None-Match"), etag)) {
+                ex.sendResponseHeaders(304, -1);
+                ex.close();
+                return;
             }
-            sb.append("]}");
-            sendJson(ex, 200, sb.toString());
+            byte[] body = gzip ? snapshot.gzip : snapshot.json;
+            h.set("Content-Type", "application/json; charset=utf-8");
+            if (gzip) h.set("Content-Encoding", "gzip");
+            ex.sendResponseHeaders(200, body.length);
+            try (OutputStream os = ex.getResponseBody()) { os.write(body); }
+        }
+
+        private static boolean acceptsGzip(String acceptEncoding) {
+            if (acceptEncoding == null) return false;
+            for (String part : acceptEncoding.split(",")) {
+                String[] params = part.trim().split(";");
+                if (!params[0].trim().equalsIgnoreCase("gzip")) continue;
+                for (int i = 1; i < params.length; i++) {
+                    String p = params[i].trim();
+                    if (!p.startsWith("q=")) continue;
+                    try { return Double.parseDouble(p.substring(2)) > 0; } catch (NumberFormatException e) { return false; }
+                }
+                return true;
+            }
+            return false;
+        }
+    }
+
+    static final class VideoSuggestHandler implements HttpHandler {
+        private static final int DEFAULT_LIMIT = 8;
+
+        @Override
+        public void handle(HttpExchange ex) throws IOException {
+            if (handleOptions(ex)) return;
+            if (!isGet(ex)) { sendJson(ex, 405, err("Method Not Allowed")); return; }
+
+            String query = queryParam(ex.getRequestURI(), "q");
+            String limitStr = queryParam(ex.getRequestURI(), "limit");
+            int limit = DEFAULT_LIMIT;
+            if (limitStr != null) {
+                try { limit = Math.max(1, Math.min(VideoSuggestions.MAX_LIMIT, Integer.parseInt(limitStr))); }
+                catch (NumberFormatException ignored) {}
+            }
+            List<VideoSuggestions.Suggestion> found = query == null || query.isBlank()
+                ? List.of() : new VideoRepository().suggest(query, limit);
+
+            String body = JsonBuilder.obj()
+                .put("q", query == null ? "" : query)
+                .putRaw("suggestions", JsonBuilder.arr(found, o -> {
+                    VideoSuggestions.Suggestion s = (VideoSuggestions.Suggestion) o;
+                    return JsonBuilder.obj()
+                        .put("type", s.type())
+                        .put("text", s.text())
+                        .put("id", s.id())
+                        .build();
+                }))
+                .build();
+            // Frappes répétées (retour arrière) servies par le cache du navigateur
+            ex.getResponseHeaders().set("Cache-Control", "public, max-age=30");
+            sendJson(ex, 200, body);
         }
     }
 
@@ -224,11 +308,149 @@ public final class AdminApiServer {
                 .put("jvmUsedMb", usedMb)
                 .put("jvmTotalMb", totalMb)
                 .put("sseClients", SseEventBus.get().getClientCount())
+                .put("httpInFlight", httpAdmission != null ? httpAdmission.getInFlight() : 0)
+                .put("httpRejected", httpAdmission != null ? httpAdmission.getRejected() : 0)
+                .putRaw("segmentCache", segmentCacheJson())
+                .putRaw("shaping", shapingJson())
+                .putRaw("viewWriter", viewWriterJson())
+                .putRaw("dbPool", dbPoolJson())
+                .putRaw("viewArchive", viewArchiveJson())
+                .putRaw("catalogCache", catalogCacheJson())
+                .putRaw("searchIndex", searchIndexJson())
+                .putRaw("sse", sseJson())
                 .build();
             sendJson(ex, 200, body);
         }
     }
 
+    private static String segmentCacheJson() {
+        SegmentCache cache = SegmentCache.get();
+        return JsonBuilder.obj()
+            .put("enabled", cache.isEnabled())
+            .put("hits", cache.getHits())
+            .put("misses", cache.getMisses())
+            .put("evictions", cache.getEvictions())
+            .put("invalidations", cache.getInvalidations())
+            .put("blocks", cache.getBlocks())
+            .put("bytes", cache.getBytes())
+            .put("maxBytes", cache.getMaxBytes())
+            .build();
+    }
+
+    private static String dbPoolJson() {
+        DatabaseManager.PoolStats pool = DatabaseManager.getInstance().poolStats();
+        return JsonBuilder.obj()
+            .put("total", pool.total())
+            .put("active", pool.active())
+            .put("idle", pool.idle())
+            .put("max", pool.max())
+            .put("waiting", pool.waiting())
+            .put("acquired", pool.acquired())
+            .put("created", pool.created())
+            .put("evicted", pool.evicted())
+            .put("timeouts", pool.timeouts())
+            .put("leaks", pool.leaks())
+            .put("avgWaitMicros", pool.avgWaitMicros())
+            .put("maxWaitMicros", pool.maxWaitMicros())
+            .put("statementHits", pool.statementHits())
+            .put("statementMisses", pool.statementMisses())
+            .put("statementEvictions", pool.statementEvictions())
+            .put("statementHitRate", pool.statementHitRate())
+            .build();
+    }
+
+    private static String viewWriterJson() {
+        ViewEventWriter writer = ViewEventWriter.get();
+        return JsonBuilder.obj()
+            .put("queued", writer.getQueued())
+            .put("written", writer.getWritten())
+            .put("dropped", writer.getDropped())
+            .put("batches", writer.getBatches())
+            .put("failures", writer.getFailures())
+            .put("pendingViewCounts", VideoCounters.get().getPendingViews())
+            .put("counterFlushes", VideoCounters.get().getFlushes())
+            .build();
+    }
+
+    private static String catalogCacheJson() {
+        VideoCatalogCache cache = VideoCatalogCache.get();
+        return JsonBuilder.obj()
+            .put("enabled", cache.isEnabled())
+            .put("size", cache.getSize())
+            .put("hits", cache.getHits())
+            .put("misses", cache.getMisses())
+            .put("invalidations", cache.getInvalidations())
+            .put("version", cache.getVersion())
+            .put("snapshotRebuilds", CatalogSnapshot.getRebuilds())
+            .build();
+    }
+
+    /** Totaux du bus SSE et retard des clients les plus en retard. */
+    private static String sseJson() {
+        SseEventBus bus = SseEventBus.get();
+        // Retards relevés une fois : ils changent pendant le tri
+        record Lag(SseClient client, long lagMs, long dropped) {}
+        List<Lag> slowest = bus.getClients().stream()
+            .map(c -> new Lag(c, c.getLagMs(), c.getDropped()))
+            .sorted(Comparator.comparingLong(Lag::lagMs).thenComparingLong(Lag::dropped).reversed())
+            .limit(20)
+            .toList();
+        return JsonBuilder.obj()
+            .put("clients", bus.getClientCount())
+            .put("maxClients", bus.getMaxClients())
+            .put("rejected", bus.getRejected())
+            .put("writerThreads", bus.getWriterThreads())
+            .put("writersBusy", bus.getWritersBusy())
+            .put("dropped", bus.getDroppedTotal())
+            .put("slowDisconnects", bus.getSlowDisconnects())
+            .put("replayed", bus.getReplayed())
+            .put("resyncs", bus.getResyncs())
+            .put("coalesced", bus.getCoalescedTotal())
+            .put("writesSaved", bus.getWritesSaved())
+            .putRaw("slowest", JsonBuilder.arr(slowest, o -> {
+                Lag l = (Lag) o;
+                SseClient c = l.client();
+                return JsonBuilder.obj()
+                    .put("id", c.getId())
+                    .put("client", c.getLabel())
+                    .put("filter", c.getFilter().toString())
+                    .put("queued", c.getQueued())
+                    .put("lagMs", l.lagMs())
+                    .put("maxLagMs", c.getMaxLagMs())
+                    .put("sent", c.getSent())
+                    .put("dropped", l.dropped())
+                    .put("coalesced", c.getCoalesced())
+                    .build();
+            }))
+            .build();
+    }
+
+    private static String searchIndexJson() {
+        VideoSearchIndex index = VideoSearchIndex.get();
+        return JsonBuilder.obj()
+            .put("enabled", index.isEnabled())
+            .put("videos", index.getSize())
+            .put("terms", index.getTerms())
+            .put("queries", index.getQueries())
+            .put("rebuilds", index.getRebuilds())
+            .put("updates", index.getUpdates())
+            .put("lastRebuildMs", index.getLastRebuildMs())
+            .put("suggestions", index.getSuggestions())
+            .put("lastSuggestionsBuildMs", index.getLastSuggestionsBuildMs())
+            .build();
+    }
+
+    private static String viewArchiveJson() {
+        ViewArchiver archiver = ViewArchiver.get();
+        return JsonBuilder.obj()
+            .put("retentionDays", archiver.getRetentionDays())
+            .put("archivedDays", archiver.getArchivedDays())
+            .put("archivedRows", archiver.getArchivedRows())
+            .put("failures", archiver.getFailures())
+            .put("lastRunMs", archiver.getLastRunMs())
+            .build();
+    }
+
     // ═══════════════════════════════════════════════════════════════════════
     // SSE — /api/events
     // ═══════════════════════════════════════════════════════════════════════
@@ -238,23 +460,20 @@ public final class AdminApiServer {
         public void handle(HttpExchange ex) throws IOException {
             if (handleOptions(ex)) return;
             addCors(ex);
+            SseFilter filter = SseFilter.forEvents(queryParam(ex.getRequestURI(), "topics"));
+            SseClient client = new SseClient(ex.getResponseBody(), ex.getRemoteAddress() + " " + ex.getRequestURI().getPath(), filter);
+            if (!admitSse(ex, client)) return;
             ex.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
             ex.getResponseHeaders().set("Cache-Control", "no-cache");
             ex.getResponseHeaders().set("Connection", "keep-alive");
-            ex.sendResponseHeaders(200, 0);
 
-            SseClient client = new SseClient(ex.getResponseBody());
-            SseEventBus.get().addClient(client);
-            // Send initial connected event
+            // Send initial connected event, then the events missed since Last-Event-ID (or a resync).
+            // No waiting loop: the client's writer keeps the exchange open until a write fails.
             try {
+                ex.sendResponseHeaders(200, 0);
                 client.send("event: connected\ndata: {\"status\":\"ok\"}\n\n".getBytes(StandardCharsets.UTF_8));
-                // Block until client disconnects
-                while (!client.isClosed()) {
-                    Thread.sleep(5000);
-                }
-            } catch (Exception ignored) {
-            } finally {
-                SseEventBus.get().removeClient(client);
+                SseEventBus.get().addClient(client, ex.getRequestHeaders().getFirst("Last-Event-ID"));
+            } catch (IOException e) {
                 client.close();
             }
         }
@@ -269,29 +488,41 @@ public final class AdminApiServer {
         public void handle(HttpExchange ex) throws IOException {
             if (handleOptions(ex)) return;
             addCors(ex);
+            SseFilter filter;
+            try {
+                filter = SseFilter.forLogs(queryParam(ex.getRequestURI(), "level"), queryParam(ex.getRequestURI(), "component"));
+            } catch (IllegalArgumentException e) {
+                sendJson(ex, 400, err(e.getMessage()));
+                return;
+            }
+            SseClient client = new SseClient(ex.getResponseBody(), ex.getRemoteAddress() + " " + ex.getRequestURI().getPath(), filter);
+            if (!admitSse(ex, client)) return;
             ex.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
             ex.getResponseHeaders().set("Cache-Control", "no-cache");
-            ex.sendResponseHeaders(200, 0);
 
-            SseClient client = new SseClient(ex.getResponseBody());
-            // Send log history first
+            // Send log history first (the AppLogger listener set at startup publishes the next ones)
             try {
+                ex.sendResponseHeaders(200, 0);
                 for (AppLogger.LogEntry entry : AppLogger.getHistory()) {
+                    if (!filter.accepts(entry)) continue;
                     client.send(("event: log_entry\ndata: " + entry.toJson() + "\n\n")
                         .getBytes(StandardCharsets.UTF_8));
                 }
-                // Register for future logs
-                AppLogger.setListener(e -> SseEventBus.get().publishLogEntry(e.toJson()));
                 SseEventBus.get().addClient(client);
-                while (!client.isClosed()) Thread.sleep(5000);
-            } catch (Exception ignored) {
-            } finally {
-                SseEventBus.get().removeClient(client);
+            } catch (IOException e) {
                 client.close();
             }
         }
     }
 
+    /** Réserve une place SSE (sse.max.clients), sinon répond 503 + Retry-After. */
+    private static boolean admitSse(HttpExchange ex, SseClient client) throws IOException {
+        if (SseEventBus.get().admit(client)) return true;
+        ex.getResponseHeaders().set("Retry-After", "5");
+        sendJson(ex, 503, err("Trop de connexions SSE"));
+        return false;
+    }
+
     // ═══════════════════════════════════════════════════════════════════════
     // ADMIN — /api/admin/videos
     // ═══════════════════════════════════════════════════════════════════════
@@ -619,13 +850,19 @@ public final class AdminApiServer {
             String path = ex.getRequestURI().getPath();
             StatsRepository stats = new StatsRepository();
 
+            if (path.endsWith("/export")) {
+                exportViews(ex);
+                return;
+            }
+
             if (path.endsWith("/hourly")) {
                 List<StatsRepository.HourlyStats> hs = stats.viewsLast24h();
                 StringBuilder sb = new StringBuilder("[");
                 for (int i = 0; i < hs.size(); i++) {
                     if (i > 0) sb.append(',');
                     sb.append("{\"hour\":").append(hs.get(i).hour())
-                      .append(",\"views\":").append(hs.get(i).viewCount()).append('}');
+                      .append(",\"views\":").append(hs.get(i).viewCount())
+                      .append(",\"uniqueViewers\":").append(hs.get(i).uniqueViewers()).append('}');
                 }
                 sb.append(']');
                 sendJson(ex, 200, sb.toString());
@@ -667,6 +904,36 @@ public final class AdminApiServer {
                 .build();
             sendJson(ex, 200, body);
         }
+
+        /** CSV des vues brutes de from à to inclus, lu dans les archives et view_events. */
+        private static void exportViews(HttpExchange ex) throws IOException {
+            LocalDate from, to;
+            Integer videoId = null;
+            try {
+                from = LocalDate.parse(String.valueOf(queryParam(ex.getRequestURI(), "from")));
+                to = LocalDate.parse(String.valueOf(queryParam(ex.getRequestURI(), "to")));
+                String id = queryParam(ex.getRequestURI(), "videoId");
+                if (id != null) videoId = Integer.parseInt(id);
+            } catch (DateTimeParseException | NumberFormatException e) {
+                sendJson(ex, 400, err("from et to requis (AAAA-MM-JJ), videoId numérique"));
+                return;
+            }
+            if (to.isBefore(from) || ChronoUnit.DAYS.between(from, to) >= 366) {
+                sendJson(ex, 400, err("Plage invalide (366 jours max)"));
+                return;
+            }
+            addCors(ex);
+            ex.getResponseHeaders().set("Content-Type", "text/csv; charset=utf-8");
+            ex.getResponseHeaders().set("Content-Disposition",
+                "attachment; filename=\"views-" + from + "_" + to + ".csv\"");
+            ex.sendResponseHeaders(200, 0);
+            try (Writer out = new BufferedWriter(new OutputStreamWriter(ex.getResponseBody(), StandardCharsets.UTF_8))) {
+                ViewArchiver.get().export(from, to, videoId, out);
+            } catch (SQLException e) {
+                // En-têtes déjà envoyés : la réponse est tronquée
+                AppLogger.warn(LOG, "Export des vues interrompu: " + e.getMessage());
+            }
+        }
     }
 
     // ═══════════════════════════════════════════════════════════════════════
@@ -722,7 +989,10 @@ public final class AdminApiServer {
         if (q == null) return null;
         for (String p : q.split("&")) {
             String[] kv = p.split("=", 2);
-            if (kv.length == 2 && kv[0].equals(key)) return kv[1];
+            if (kv.length == 2 && kv[0].equals(key)) {
+                try { return URLDecoder.decode(kv[1], StandardCharsets.UTF_8); }
+                catch (IllegalArgumentException e) { return kv[1]; }
+            }
         }
         return null;
     }
@@ -803,15 +1073,7 @@ public final class AdminApiServer {
     }
 
     private static void persistVideoFlags(int id, Boolean isFree, Boolean active) {
-        try (Connection c = DatabaseManager.getInstance().getConnection();
-             PreparedStatement ps = c.prepareStatement("UPDATE videos SET is_free = COALESCE(?, is_free), is_active = COALESCE(?, is_active) WHERE id = ?")) {
-            if (isFree != null) ps.setBoolean(1, isFree); else ps.setNull(1, java.sql.Types.BOOLEAN);
-            if (active != null) ps.setBoolean(2, active); else ps.setNull(2, java.sql.Types.BOOLEAN);
-            ps.setInt(3, id);
-            ps.executeUpdate();
-        } catch (SQLException e) {
-            AppLogger.warn(LOG, "persistVideoFlags error: " + e.getMessage());
-        }
+        new VideoRepository().updateFlags(id, isFree, active);
     }
 
     private static String sanitizeFilename(String name) {
@@ -844,6 +1106,17 @@ public final class AdminApiServer {
     private static void serveVideoFile(HttpExchange ex, Path file, VideoMetadata vm) throws IOException {
         addCors(ex);
 
+        // Revalidation (CDN, navigateur) : 304 sans compter de spectateur ni de vue
+        FileValidators validators = FileValidators.current(mediaValidators.get(vm.getId()), file);
+        mediaValidators.put(vm.getId(), validators);
+        Headers requestHeaders = ex.getRequestHeaders();
+        if (validators.notModified(requestHeaders.getFirst("If-None-Match"), requestHeaders.getFirst("If-Modified-Since"))) {
+            setValidatorHeaders(ex, validators);
+            ex.sendResponseHeaders(304, -1);
+            ex.close();
+            return;
+        }
+
         int current = activeClientStreams.incrementAndGet();
         String clientIp = ex.getRemoteAddress() != null && ex.getRemoteAddress().getAddress() != null
             ? ex.getRemoteAddress().getAddress().getHostAddress()
@@ -868,8 +1141,10 @@ public final class AdminApiServer {
             return;
         }
 
-        long fileLength = Files.size(file);
-        String rangeHeader = ex.getRequestHeaders().getFirst("Range");
+        long fileLength = validators.getLength();
+        // If-Range périmé : la plage visait une autre version du fichier, on renvoie tout
+        String rangeHeader = validators.rangeStillValid(requestHeaders.getFirst("If-Range"))
+            ? requestHeaders.getFirst("Range") : null;
         long start = 0;
         long end = fileLength - 1;
         boolean partial = false;
@@ -897,25 +1172,22 @@ public final class AdminApiServer {
         long contentLength = end - start + 1;
         ex.getResponseHeaders().set("Content-Type", contentTypeFor(file.getFileName().toString()));
         ex.getResponseHeaders().set("Accept-Ranges", "bytes");
-        ex.getResponseHeaders().set("Cache-Control", "no-cache");
+        setValidatorHeaders(ex, validators);
         if (partial) {
             ex.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + fileLength);
         }
         ex.sendResponseHeaders(partial ? 206 : 200, contentLength);
 
+        BandwidthShaper.Session shaping = BandwidthShaper.get().open(
+            clientIp, file.toAbsolutePath().toString(), BandwidthShaper.PLAN_ANONYMOUS, vm.getBitrateKbps());
         try {
-            try (var raf = new RandomAccessFile(file.toFile(), "r"); OutputStream os = ex.getResponseBody()) {
-                raf.seek(start);
-                byte[] buffer = new byte[64 * 1024];
-                long remaining = contentLength;
-                while (remaining > 0) {
-                    int read = raf.read(buffer, 0, (int) Math.min(buffer.length, remaining));
-                    if (read < 0) break;
-                    os.write(buffer, 0, read);
-                    remaining -= read;
-                }
+            // HttpServer n'expose pas le SocketChannel : blocs populaires depuis le
+            // SegmentCache, le reste en transferTo via un tampon direct du JDK
+            try (OutputStream os = ex.getResponseBody()) {
+                SegmentCache.get().transfer(file, start, contentLength, Channels.newChannel(os), shaping);
             }
         } finally {
+            if (shaping != null) shaping.close();
             perVideo.decrementAndGet();
             if (perVideo.get() <= 0) viewersPerVideo.remove(vm.getId(), perVideo);
             ipCount.decrementAndGet();
@@ -923,7 +1195,14 @@ public final class AdminApiServer {
             activeClientStreams.decrementAndGet();
         }
 
-        new VideoRepository().incrementViewCount(vm.getId());
+        VideoCounters.get().incrementViews(vm.getId());
+    }
+
+    /** no-cache : les caches (CDN, navigateur) gardent la vidéo mais revalident avec ETag / Last-Modified. */
+    private static void setValidatorHeaders(HttpExchange ex, FileValidators validators) {
+        ex.getResponseHeaders().set("ETag", validators.getEtag());
+        ex.getResponseHeaders().set("Last-Modified", validators.getLastModifiedHttp());
+        ex.getResponseHeaders().set("Cache-Control", "public, no-cache");
     }
 
     private static String contentTypeFor(String name) {
@@ -1219,11 +1498,38 @@ public final class AdminApiServer {
         }
     }
 
+    private static String shapingJson() {
+        BandwidthShaper shaper = BandwidthShaper.get();
+        return JsonBuilder.obj()
+            .put("enabled", shaper.isEnabled())
+            .put("globalKbps", shaper.getGlobalKbps())
+            .put("titleKbps", shaper.getTitleKbps())
+            .put("ipKbps", shaper.getIpKbps())
+            .put("paceFactor", shaper.getPaceFactor())
+            .put("sessions", shaper.getSessions())
+            .put("delayedWrites", shaper.getDelayedWrites())
+            .put("delayedMs", shaper.getDelayedMillis())
+            .build();
+    }
+
     // ═══════════════════════════════════════════════════════════════════════
     // ADMIN — /api/admin/settings
     // ═══════════════════════════════════════════════════════════════════════
 
     static final class AdminSettingsHandler implements HttpHandler {
+        // Débits (kbit/s, 0 = illimité) : champ JSON → clé app_settings
+        private static final String[][] SHAPING_KBPS = {
+            {"shapingGlobalKbps",        "shaping.global.kbps"},
+            {"shapingTitleKbps",         "shaping.title.kbps"},
+            {"shapingIpKbps",            "shaping.ip.kbps"},
+            {"shapingBurstSeconds",      "shaping.burst.seconds"},
+            {"shapingPlanAnonymousKbps", "shaping.plan.anonymous.kbps"},
+            {"shapingPlanFreeKbps",      "shaping.plan.free.kbps"},
+            {"shapingPlanTrialKbps",     "shaping.plan.trial.kbps"},
+            {"shapingPlanMonthlyKbps",   "shaping.plan.monthly.kbps"},
+            {"shapingPlanAnnualKbps",    "shaping.plan.annual.kbps"},
+        };
+
         @Override public void handle(HttpExchange ex) throws IOException {
             if (handleOptions(ex)) return;
             if (!isAdmin(ex)) return;
@@ -1232,12 +1538,16 @@ public final class AdminApiServer {
             SettingsRepository repo = new SettingsRepository();
             if ("GET".equals(method)) {
                 Map<String, String> settings = repo.findAll();
-                String body = JsonBuilder.obj()
+                JsonBuilder json = JsonBuilder.obj()
                     .put("streamingMaxConnectionsPerIp", parseInt(settings.get("streaming.max.connections.per.ip"), AppConfig.get().getMaxConnectionsPerIp()))
                     .put("streamingMaxConcurrentClients", parseInt(settings.get("streaming.max.concurrent.clients"), AppConfig.get().getMaxConcurrentClients()))
                     .put("planCurrency", settings.getOrDefault("plan.currency", AppConfig.get().getPlanCurrency()))
-                    .build();
-                sendJson(ex, 200, body);
+                    .put("shapingEnabled", Boolean.parseBoolean(settings.getOrDefault("shaping.enabled", String.valueOf(AppConfig.get().isShapingEnabled()))))
+                    .put("shapingPaceFactor", parseDouble(settings.get("shaping.pace.factor"), AppConfig.get().getShapingPaceFactor()));
+                for (String[] field : SHAPING_KBPS) {
+                    json.put(field[0], parseInt(settings.get(field[1]), AppConfig.get().getInt(field[1])));
+                }
+                sendJson(ex, 200, json.build());
                 return;
             }
 
@@ -1255,7 +1565,21 @@ public final class AdminApiServer {
                     String c = body.get("planCurrency");
                     if (c != null && !c.isBlank()) repo.upsert("plan.currency", c.trim().toUpperCase(Locale.ROOT));
                 }
+                if (body.containsKey("shapingEnabled")) {
+                    repo.upsert("shaping.enabled", String.valueOf("true".equalsIgnoreCase(body.get("shapingEnabled"))));
+                }
+                if (body.containsKey("shapingPaceFactor")) {
+                    double v = Math.max(0, Math.min(20, parseDouble(body.get("shapingPaceFactor"), AppConfig.get().getShapingPaceFactor())));
+                    repo.upsert("shaping.pace.factor", String.valueOf(v));
+                }
+                for (String[] field : SHAPING_KBPS) {
+                    if (body.containsKey(field[0])) {
+                        int v = clamp(parseInt(body.get(field[0]), 0), 0, 10_000_000);
+                        repo.upsert(field[1], String.valueOf(v));
+                    }
+                }
                 reloadRuntimeSettings();
+                BandwidthShaper.get().reload();
                 sendJson(ex, 200, "{\"updated\":true}");
                 return;
             }
@@ -1348,6 +1672,11 @@ public final class AdminApiServer {
         try { return Integer.parseInt(value.trim()); } catch (NumberFormatException e) { return fallback; }
     }
 
+    private static double parseDouble(String value, double fallback) {
+        if (value == null || value.isBlank()) return fallback;
+        try { return Double.parseDouble(value.trim()); } catch (NumberFormatException e) { return fallback; }
+    }
+
     private static int clamp(int value, int min, int max) {
         return Math.max(min, Math.min(max, value));
     }
@@ -0,0 +1,102 @@
+package server.api;
+
+import common.AppConfig;
+import db.VideoCatalogCache;
+import db.VideoMetadata;
+import db.VideoRepository;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Réponse de GET /api/videos (vidéos actives) sérialisée une fois : JSON UTF-8 et
+ * sa version gzip, avec un ETag fort par représentation (empreinte du contenu).
+ *
+ * Reconstruite quand VideoCatalogCache.getVersion() change (écriture du catalogue,
+ * des catégories ou des compteurs de vues) ou après catalog.cache.ttl.ms, qui borne
+ * le retard sur les écritures des autres processus. Instances immuables, partagées
+ * entre les requêtes.
+ */
+final class CatalogSnapshot {
+
+    private static final Object LOCK = new Object();
+    private static volatile CatalogSnapshot current;
+    private static volatile long rebuilds;
+
+    final long version;
+    final long builtAt;
+    final byte[] json;
+    final byte[] gzip;
+    final String etag;
+    final String gzipEtag;
+
+    private CatalogSnapshot(long version, byte[] json) {
+        this.version = version;
+        this.builtAt = System.currentTimeMillis();
+        this.json = json;
+        this.gzip = gzip(json);
+        String digest = digest(json);
+        this.etag = '"' + digest + '"';
+        this.gzipEtag = "\"" + digest + "-gz\"";
+    }
+
+    /** Instantané à jour, reconstruit par un seul thread si la version ou l'âge l'exigent. */
+    static CatalogSnapshot current() {
+        CatalogSnapshot s = current;
+        if (fresh(s)) return s;
+        synchronized (LOCK) {
+            s = current;
+            if (fresh(s)) return s;
+            // Version lue avant la requête : une écriture pendant la construction force la suivante
+            long version = VideoCatalogCache.get().getVersion();
+            s = new CatalogSnapshot(version, render(new VideoRepository().findActive()));
+            current = s;
+            rebuilds++;
+            return s;
+        }
+    }
+
+    static long getRebuilds() { return rebuilds; }
+
+    private static boolean fresh(CatalogSnapshot s) {
+        if (s == null || s.version != VideoCatalogCache.get().getVersion()) return false;
+        long ttl = AppConfig.get().getCatalogCacheTtlMs();
+        return System.currentTimeMillis() - s.builtAt < ttl;
+    }
+
+    static byte[] render(List<VideoMetadata> videos) {
+        StringBuilder sb = new StringBuilder(256 + videos.size() * 768);
+        sb.append("{\"count\":").append(videos.size()).append(",\"videos\":[");
+        for (int i = 0; i < videos.size(); i++) {
+            if (i > 0) sb.append(',');
+            sb.append(JsonBuilder.videoToJson(videos.get(i)));
+        }
+        sb.append("]}");
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] gzip(byte[] data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 64);
+        try (GZIPOutputStream gz = new GZIPOutputStream(out)) {
+            gz.write(data);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private static String digest(byte[] data) {
+        try {
+            byte[] sha = MessageDigest.getInstance("SHA-256").digest(data);
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(sha).substring(0, 22);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
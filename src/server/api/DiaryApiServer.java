@@ -14,7 +14,7 @@ import java.rmi.registry.Registry;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.List;
-import java.util.concurrent.Executors;
+import server.ConnectionExecutors;
 
 /**
  * API HTTP minimale pour exposer le contenu du Diary à un frontend web.
@@ -33,10 +33,9 @@ public final class DiaryApiServer {
         validatePort(diaryPort, "diaryPort");
         validatePort(apiPort, "apiPort");
 
-        HttpServer server = HttpServer.create(new InetSocketAddress(apiPort), 0);
+        HttpServer server = ConnectionExecutors.newHttpServer(new InetSocketAddress(apiPort), "diary-api");
         server.createContext("/api/health", new HealthHandler(diaryHost, diaryPort));
         server.createContext("/api/videos", new VideosHandler(diaryHost, diaryPort));
-        server.setExecutor(Executors.newCachedThreadPool());
 
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             log("Arrêt de l'API web...");
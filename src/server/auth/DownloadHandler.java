@@ -3,7 +3,11 @@ package server.auth;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import common.AppLogger;
+import server.BandwidthShaper;
 import db.DatabaseManager;
+import db.User;
+import db.UserRepository;
+import db.VideoCounters;
 import db.VideoMetadata;
 import db.VideoRepository;
 
@@ -35,10 +39,11 @@ public final class DownloadHandler implements HttpHandler {
         }
 
         // Validate token
-        int videoId = validateToken(token);
-        if (videoId < 0) {
+        DownloadToken grant = validateToken(token);
+        if (grant == null) {
             AuthApiServer.sendJson(ex, 403, AuthApiServer.err("Token invalide ou expiré")); return;
         }
+        int videoId = grant.videoId();
 
         // Get video file
         Optional<VideoMetadata> vOpt = new VideoRepository().findById(videoId);
@@ -58,12 +63,8 @@ public final class DownloadHandler implements HttpHandler {
         // Mark token as used
         markUsed(token);
 
-        // Increment download count
-        try (Connection c = DatabaseManager.getInstance().getConnection();
-             PreparedStatement ps = c.prepareStatement("UPDATE videos SET download_count = download_count + 1 WHERE id=?")) {
-            ps.setInt(1, videoId);
-            ps.executeUpdate();
-        } catch (SQLException ignored) {}
+        // Increment download count (en mémoire, écrit par VideoCounters)
+        VideoCounters.get().incrementDownloads(videoId);
 
         String filename = safeFilename(video.getTitle(), file);
         String contentType = getContentType(file.getName());
@@ -77,31 +78,45 @@ public final class DownloadHandler implements HttpHandler {
         ex.getResponseHeaders().set("Cache-Control", "no-cache");
         ex.sendResponseHeaders(200, file.length());
 
+        // Débit plafonné selon le forfait de l'utilisateur (sans abonnement actif : free)
+        String plan = new UserRepository().findById(grant.userId()).map(User::getSubPlan).orElse(null);
+        String clientIp = ex.getRemoteAddress() != null && ex.getRemoteAddress().getAddress() != null
+            ? ex.getRemoteAddress().getAddress().getHostAddress() : "unknown";
+        BandwidthShaper.Session shaping = BandwidthShaper.get().open(
+            clientIp, file.getAbsolutePath(), plan != null ? plan : "free", 0);
+
         try (OutputStream out = ex.getResponseBody();
              FileInputStream fis = new FileInputStream(file)) {
             byte[] buf = new byte[BUFFER];
             int read;
-            while ((read = fis.read(buf)) != -1) out.write(buf, 0, read);
+            while ((read = fis.read(buf)) != -1) {
+                out.write(buf, 0, read);
+                if (shaping != null) shaping.throttle(read);
+            }
             out.flush();
         } catch (IOException e) {
             AppLogger.warn(LOG, "Download interrompu: " + e.getMessage());
+        } finally {
+            if (shaping != null) shaping.close();
         }
     }
 
-    /** Valide le token et retourne le video_id. -1 si invalide. */
-    private int validateToken(String token) {
+    private record DownloadToken(int videoId, int userId) {}
+
+    /** Valide le token et retourne la vidéo et l'utilisateur. null si invalide. */
+    private DownloadToken validateToken(String token) {
         String sql = """
-            SELECT video_id FROM download_tokens
+            SELECT video_id, user_id FROM download_tokens
             WHERE token=? AND used=FALSE AND expires_at > CURRENT_TIMESTAMP
         """;
         try (Connection c = DatabaseManager.getInstance().getConnection();
              PreparedStatement ps = c.prepareStatement(sql)) {
             ps.setString(1, token);
             ResultSet rs = ps.executeQuery();
-            return rs.next() ? rs.getInt("video_id") : -1;
+            return rs.next() ? new DownloadToken(rs.getInt("video_id"), rs.getInt("user_id")) : null;
         } catch (SQLException e) {
             AppLogger.warn(LOG, "validateToken: " + e.getMessage());
-            return -1;
+            return null;
         }
     }
 
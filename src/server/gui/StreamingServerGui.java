@@ -52,6 +52,7 @@ public class StreamingServerGui extends JFrame {
     private JTextField txtVideoTitle;
     private JTextField txtStreamingHost;
     private JTextField txtStreamingPort;
+    private JCheckBox chkSharedPort;
     private JButton btnBrowseFile;
     private JButton btnBrowseFolder;
     private JButton btnStartStreaming;
@@ -168,6 +169,10 @@ public class StreamingServerGui extends JFrame {
         portPanel.add(new JLabel("Port streaming:"));
         txtStreamingPort = new JTextField("5000", 8);
         portPanel.add(txtStreamingPort);
+        chkSharedPort = new JCheckBox("Port partagé");
+        chkSharedPort.setBackground(Color.WHITE);
+        chkSharedPort.setToolTipText("Plusieurs titres sur un même port, servis sous /v/{id}/stream");
+        portPanel.add(chkSharedPort);
         panel.add(portPanel);
 
         JPanel actionPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 10, 6));
@@ -345,8 +350,10 @@ public class StreamingServerGui extends JFrame {
         }
 
         int streamingPort = Integer.parseInt(streamPortStr);
-        for (int i = 0; i < tableModel.getRowCount(); i++) {
-            if ((Integer) tableModel.getValueAt(i, 2) == streamingPort) {
+        boolean shared = chkSharedPort.isSelected();
+        for (StreamingServer running : runningServers.values()) {
+            // Un port partagé accepte d'autres titres partagés, jamais un serveur dédié
+            if (running.getStreamingPort() == streamingPort && !(shared && running.isSharedPort())) {
                 return "Ce port de streaming est déjà utilisé.";
             }
         }
@@ -425,6 +432,7 @@ public class StreamingServerGui extends JFrame {
         int diaryPort = Integer.parseInt(txtDiaryPort.getText().trim());
         String streamingHost = txtStreamingHost.getText().trim();
         int streamingPort = Integer.parseInt(txtStreamingPort.getText().trim());
+        boolean sharedPort = chkSharedPort.isSelected();
 
         setFormEnabled(false);
         btnStartStreaming.setText("Démarrage...");
@@ -436,6 +444,7 @@ public class StreamingServerGui extends JFrame {
                     selectedVideoFile,
                     title,
                     streamingPort,
+                    sharedPort,
                     diaryHost,
                     diaryPort,
                     streamingHost
@@ -450,7 +459,7 @@ public class StreamingServerGui extends JFrame {
                     StreamingServer server = get();
                     runningServers.put(title, server);
 
-                    String videoUrl = "http://" + streamingHost + ":" + streamingPort;
+                    String videoUrl = server.getStreamUrl();
                     tableModel.addRow(new Object[]{
                         title,
                         streamingHost,
@@ -461,7 +470,8 @@ public class StreamingServerGui extends JFrame {
                     });
 
                     logMessage("Streaming démarré: " + title + " -> " + videoUrl);
-                    resetVideoSelection(streamingPort + 1);
+                    // Port partagé : le titre suivant peut rejoindre le même écouteur
+                    resetVideoSelection(sharedPort ? streamingPort : streamingPort + 1);
                     refreshStreamsCounter();
                 } catch (Exception e) {
                     String message = e.getCause() == null ? e.getMessage() : e.getCause().getMessage();
@@ -521,6 +531,7 @@ public class StreamingServerGui extends JFrame {
         txtVideoTitle.setEnabled(enabled);
         txtStreamingHost.setEnabled(enabled);
         txtStreamingPort.setEnabled(enabled);
+        chkSharedPort.setEnabled(enabled);
         btnBrowseFile.setEnabled(enabled);
         btnBrowseFolder.setEnabled(enabled);
     }
@@ -1,14 +1,25 @@
 package server.sse;
 
+import common.AppConfig;
 import common.AppLogger;
+import server.ConnectionExecutors;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
 
 /**
  * Bus d'événements SSE (Server-Sent Events).
@@ -17,98 +28,511 @@ import java.util.concurrent.TimeUnit;
  * Événements émis :
  *  - video_added    : une vidéo a été ajoutée en base
  *  - video_removed  : une vidéo supprimée
+ *  - video_updated  : une vidéo modifiée (id 0 = plusieurs vidéos)
  *  - stream_started : un stream HTTP a démarré
  *  - stream_stopped : un stream arrêté
  *  - stats_update   : stats dashboard rafraîchies
  *  - log_entry      : ligne de log (pour le terminal admin)
+ *
+ * Les abonnés internes (subscribe) reçoivent les mêmes événements que les clients HTTP.
+ * publish() ne fait qu'encoder l'événement une fois et le déposer dans la file de
+ * chaque client : l'écriture réseau se fait sur un pool partagé de sse.writer.threads
+ * threads d'écriture, qu'un client n'occupe que lorsqu'il a des événements en file.
+ *
+ * Chaque événement (hors log_entry et keepalive) porte un id croissant, y compris
+ * d'un démarrage à l'autre (millisecondes de démarrage × 1000), et reste dans un
+ * anneau des sse.replay.size derniers. Un client qui se reconnecte avec Last-Event-ID
+ * reçoit les événements manqués, ou un événement resync si l'id n'est plus dans
+ * l'anneau (il doit alors recharger ses données).
+ *
+ * Chaque client a un SseFilter (sujets pour /api/events, niveau et composants pour
+ * /api/logs) : un événement n'est remis qu'aux clients intéressés, et un log_entry
+ * n'est encodé que si au moins un client le veut.
+ *
+ * Rafales (import en masse, stream_started/stopped) : l'écriture part
+ * sse.coalesce.ms après le premier événement en file, et envoie tout le lot en une
+ * écriture et un flush. Pendant l'attente, un stats_update remplace le précédent et un
+ * video_added / video_updated remplace celui de la même vidéo encore en file.
+ *
+ * Connexions : au plus sse.max.clients (admit), sans thread de requête bloqué ni
+ * thread propre : un client inactif n'occupe aucun thread. Une écriture en échec
+ * (événement ou keepalive toutes les sse.heartbeat.ms) ferme le client, qui quitte
+ * aussitôt le bus et rend sa place.
  */
 public final class SseEventBus {
 
+    /**
+     * Threads d'écriture partagés, créés à la demande et arrêtés après 30 s d'inactivité.
+     * Threads système : l'écriture de sun.net.httpserver se bloque sous moniteur, un
+     * thread virtuel y resterait épinglé à son porteur. Un client dont la socket est
+     * pleine garde son thread jusqu'à la fin de l'écriture.
+     */
+    private static final ThreadPoolExecutor WRITERS = writerPool(AppConfig.get().getSseWriterThreads());
+    /** Keepalive et fenêtres de fusion (ne fait que passer la main à WRITERS). */
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "sse-timer");
+        t.setDaemon(true);
+        return t;
+    });
     private static final SseEventBus INSTANCE = new SseEventBus();
     private static final String LOG = "SseEventBus";
+    private static final AtomicLong droppedTotal = new AtomicLong();
+    private static final AtomicLong slowDisconnects = new AtomicLong();
+    private static final AtomicLong coalescedTotal = new AtomicLong();
+    private static final AtomicLong writesSaved = new AtomicLong();
+    /** Sans id ni rejeu : /api/logs renvoie déjà l'historique d'AppLogger. */
+    private static final String LOG_ENTRY = "log_entry";
 
     private final List<SseClient> clients = new CopyOnWriteArrayList<>();
-    private final ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
-        Thread t = new Thread(r, "sse-heartbeat");
-        t.setDaemon(true);
-        return t;
-    });
+    private final ConnectionExecutors.Admission admission =
+        new ConnectionExecutors.Admission("SSE", AppConfig.get().getSseMaxClients());
+    private final List<BiConsumer<String, String>> subscribers = new CopyOnWriteArrayList<>();
 
+    // Anneau de rejeu : ids contigus, ajout et inscription des clients sous ringLock
+    private final ReentrantLock ringLock = new ReentrantLock();
+    private final Frame[] ring = new Frame[AppConfig.get().getSseReplaySize()];
+    private int ringNext;
+    private int ringCount;
+    private long lastId = System.currentTimeMillis() * 1000;
+    private final AtomicLong replayed = new AtomicLong();
+    private final AtomicLong resyncs = new AtomicLong();
     private SseEventBus() {
-        // Send keepalive comment every 20s to prevent proxy timeouts
-        heartbeat.scheduleAtFixedRate(() -> broadcast("comment", ":keepalive"), 20, 20, TimeUnit.SECONDS);
+        // Keepalive : évite les coupures des proxys et détecte les navigateurs partis (écriture en échec)
+        byte[] keepalive = "event: comment\ndata: :keepalive\n\n".getBytes(StandardCharsets.UTF_8);
+        long every = AppConfig.get().getSseHeartbeatMs();
+        TIMER.scheduleAtFixedRate(() -> fanOut(new Frame(0, null, null, keepalive, System.currentTimeMillis())), every, every, TimeUnit.MILLISECONDS);
     }
 
     public static SseEventBus get() { return INSTANCE; }
 
-    /** Enregistre un client SSE connecté */
+    private static ThreadPoolExecutor writerPool(int threads) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), Thread.ofPlatform().name("sse-writer-", 1).daemon().factory());
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * Réserve une place pour client (sse.max.clients), rendue à sa fermeture ; false si
+     * le plafond est atteint (réponse 503). À appeler avant d'envoyer les en-têtes.
+     */
+    public boolean admit(SseClient client) {
+        if (!admission.tryAcquire()) return false;
+        client.admitted = true;
+        return true;
+    }
+
+    /** Enregistre un client SSE connecté ; ses événements partent sur le pool d'écriture */
     public void addClient(SseClient client) {
-        clients.add(client);
+        addClient(client, null);
+    }
+
+    /**
+     * Enregistre un client qui se reconnecte : les événements publiés après lastEventId
+     * (en-tête Last-Event-ID, null = aucun) passent avant les suivants, sans trou ni doublon.
+     */
+    public void addClient(SseClient client, String lastEventId) {
+        ringLock.lock();
+        try {
+            if (lastEventId != null && !lastEventId.isBlank()) {
+                List<Frame> missed = replayAfter(lastEventId.trim());
+                missed.removeIf(f -> !f.type().equals("resync") && !client.getFilter().accepts(f.type()));
+                client.preload(missed);
+            }
+            clients.add(client);
+        } finally {
+            ringLock.unlock();
+        }
+        if (client.isClosed()) {
+            clients.remove(client);
+            return;
+        }
+        client.start();
         AppLogger.info(LOG, "Client SSE connecté. Total: " + clients.size());
     }
 
+    /** Événements de l'anneau après lastEventId, ou un resync s'il en manque (sous ringLock). */
+    private List<Frame> replayAfter(String lastEventId) {
+        long after;
+        try {
+            after = Long.parseLong(lastEventId);
+        } catch (NumberFormatException e) {
+            after = -1;
+        }
+        if (after == lastId) return new ArrayList<>();
+        long oldest = ringCount == 0 ? lastId + 1 : ring[Math.floorMod(ringNext - ringCount, ring.length)].id();
+        if (after < oldest - 1 || after > lastId) {
+            resyncs.incrementAndGet();
+            String data = "{\"lastEventId\":\"" + esc(lastEventId) + "\"}";
+            return new ArrayList<>(List.of(frame(lastId, "resync", data)));
+        }
+        List<Frame> missed = new ArrayList<>((int) (lastId - after));
+        for (int i = ringCount - (int) (lastId - after); i < ringCount; i++) {
+            missed.add(ring[Math.floorMod(ringNext - ringCount + i, ring.length)]);
+        }
+        replayed.addAndGet(missed.size());
+        return missed;
+    }
+
     /** Retire un client déconnecté */
     public void removeClient(SseClient client) {
-        clients.remove(client);
-        AppLogger.info(LOG, "Client SSE déconnecté. Total: " + clients.size());
+        client.close();
+    }
+
+    /** Client fermé (une seule fois) : retiré du bus, sa place est rendue. */
+    private void closed(SseClient client) {
+        boolean removed = clients.remove(client);
+        if (client.admitted) admission.release();
+        if (removed) AppLogger.info(LOG, "Client SSE déconnecté. Total: " + clients.size());
     }
 
     public int getClientCount() { return clients.size(); }
+    public int getMaxClients()  { return admission.getLimit(); }
+    /** Connexions refusées (plafond sse.max.clients atteint). */
+    public long getRejected()   { return admission.getRejected(); }
+
+    /** Clients connectés (métriques de retard pour /api/health). */
+    public List<SseClient> getClients() { return List.copyOf(clients); }
+
+    public long getDroppedTotal()    { return droppedTotal.get(); }
+    public long getSlowDisconnects() { return slowDisconnects.get(); }
+    public long getCoalescedTotal()  { return coalescedTotal.get(); }
+    /** Écritures évitées : événements envoyés moins écritures (un lot = une écriture, un flush). */
+    public long getWritesSaved()     { return writesSaved.get(); }
+    public long getReplayed()        { return replayed.get(); }
+    public long getResyncs()         { return resyncs.get(); }
+    public int  getWriterThreads()   { return WRITERS.getPoolSize(); }
+    public int  getWritersBusy()     { return WRITERS.getActiveCount(); }
+
+    /** Abonné interne : reçoit (type, données JSON) de chaque événement publié, hors keepalive. */
+    public void subscribe(BiConsumer<String, String> subscriber) {
+        subscribers.add(subscriber);
+    }
 
     /** Publie un événement à tous les clients connectés */
     public void publish(String eventType, String jsonData) {
+        notifySubscribers(eventType, jsonData);
         broadcast(eventType, jsonData);
     }
 
+    private void notifySubscribers(String eventType, String jsonData) {
+        for (BiConsumer<String, String> s : subscribers) {
+            try {
+                s.accept(eventType, jsonData);
+            } catch (RuntimeException e) {
+                AppLogger.warn(LOG, "Abonné " + eventType + " en erreur: " + e.getMessage());
+            }
+        }
+    }
+
     // Convenience methods
     public void publishVideoAdded(int videoId, String title)   { publish("video_added",    "{\"id\":" + videoId + ",\"title\":\"" + esc(title) + "\"}"); }
     public void publishVideoRemoved(int videoId, String title) { publish("video_removed",  "{\"id\":" + videoId + ",\"title\":\"" + esc(title) + "\"}"); }
+    public void publishVideoUpdated(int videoId)               { publish("video_updated",  "{\"id\":" + videoId + "}"); }
     public void publishStreamStarted(String title, String url) { publish("stream_started", "{\"title\":\"" + esc(title) + "\",\"url\":\"" + esc(url) + "\"}"); }
     public void publishStreamStopped(String title)             { publish("stream_stopped", "{\"title\":\"" + esc(title) + "\"}"); }
     public void publishStatsUpdate(String statsJson)           { publish("stats_update",   statsJson); }
-    public void publishLogEntry(String logJson)                { publish("log_entry",      logJson); }
 
+    /** Entrée de log : remise aux seuls clients /api/logs dont le filtre l'accepte. */
+    public void publishLogEntry(AppLogger.LogEntry entry) {
+        if (!subscribers.isEmpty()) notifySubscribers(LOG_ENTRY, entry.toJson());
+        Frame frame = null;
+        for (SseClient client : clients) {
+            if (!client.getFilter().accepts(entry)) continue;
+            if (frame == null) frame = frame(0, LOG_ENTRY, entry.toJson());
+            if (!client.offer(frame)) clients.remove(client);
+        }
+    }
+
+    /**
+     * Encode l'événement une fois, le garde dans l'anneau de rejeu et le dépose dans la
+     * file de chaque client, sans écrire.
+     */
     private void broadcast(String eventType, String data) {
-        if (clients.isEmpty()) return;
-        String msg = "event: " + eventType + "\ndata: " + data + "\n\n";
-        byte[] bytes = msg.getBytes(StandardCharsets.UTF_8);
+        if (ring.length == 0) {
+            if (clients.stream().anyMatch(c -> c.getFilter().accepts(eventType))) fanOut(frame(0, eventType, data));
+            return;
+        }
+        ringLock.lock();
+        try {
+            Frame frame = frame(++lastId, eventType, data);
+            ring[ringNext] = frame;
+            ringNext = (ringNext + 1) % ring.length;
+            if (ringCount < ring.length) ringCount++;
+            fanOut(frame);
+        } finally {
+            ringLock.unlock();
+        }
+    }
 
-        clients.removeIf(client -> {
-            try {
-                client.send(bytes);
-                return false; // keep
-            } catch (IOException e) {
-                client.close();
-                return true; // remove
-            }
-        });
+    private void fanOut(Frame frame) {
+        for (SseClient client : clients) {
+            if (frame.type() != null && !client.getFilter().accepts(frame.type())) continue;
+            if (!client.offer(frame)) clients.remove(client);
+        }
+    }
+
+    private static Frame frame(long id, String eventType, String data) {
+        String msg = (id > 0 ? "id: " + id + "\n" : "") + "event: " + eventType + "\ndata: " + data + "\n\n";
+        return new Frame(id, eventType, coalesceKey(eventType, data), msg.getBytes(StandardCharsets.UTF_8), System.currentTimeMillis());
+    }
+
+    /** Clé des événements dont seul le dernier en file compte (null = tous envoyés). */
+    private static String coalesceKey(String eventType, String data) {
+        switch (eventType) {
+            case "stats_update":
+                return eventType;
+            case "video_added":
+            case "video_updated":
+                // data commence par {"id":N
+                if (!data.startsWith("{\"id\":")) return null;
+                int end = 6;
+                while (end < data.length() && Character.isDigit(data.charAt(end))) end++;
+                return end == 6 ? null : eventType + ":" + data.substring(6, end);
+            default:
+                return null;
+        }
     }
 
+    /**
+     * Événement encodé (id 0 = sans id), partagé par les files des clients ; type null =
+     * pour tous, key = clé de fusion (voir coalesceKey).
+     */
+    record Frame(long id, String type, String key, byte[] bytes, long createdAt) {}
+
     private static String esc(String v) {
         if (v == null) return "";
         return v.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
     }
 
-    /** Représente une connexion SSE individuelle */
+    /**
+     * Connexion SSE : les événements publiés sont mis dans une file bornée
+     * (sse.client.queue.capacity) ; une tâche d'écriture est confiée au pool partagé
+     * quand la file devient non vide, sse.coalesce.ms plus tard (tout de suite si la file
+     * est à moitié pleine), et écrit le lot en une fois. Une seule tâche par client à la
+     * fois : un navigateur bloqué ne retient ni les publieurs ni les autres clients.
+     * File pleine : les plus anciens événements sont perdus (drop-oldest) ou le client
+     * est déconnecté (disconnect), selon sse.slow.policy.
+     */
     public static final class SseClient {
+        private static final AtomicLong IDS = new AtomicLong();
+
+        private final long id = IDS.incrementAndGet();
+        private final String label;
+        private final SseFilter filter;
         private final OutputStream out;
+        private final int capacity = AppConfig.get().getSseClientQueueCapacity();
+        private final boolean disconnectWhenFull = "disconnect".equals(AppConfig.get().getSseSlowPolicy());
+        private final ArrayDeque<Frame> queue = new ArrayDeque<>();
+        private final ReentrantLock lock = new ReentrantLock();
+        private final long coalesceNanos = TimeUnit.MILLISECONDS.toNanos(AppConfig.get().getSseCoalesceMs());
+        private final ReentrantLock writeLock = new ReentrantLock();
+        private final long connectedAt = System.currentTimeMillis();
         private volatile boolean closed = false;
+        private final AtomicBoolean released = new AtomicBoolean();
+        private volatile boolean admitted;
+        // Sous lock : client démarré, tâche d'écriture prévue ou en cours, attente de fusion
+        private boolean started;
+        private boolean scheduled;
+        private ScheduledFuture<?> delayed;
+
+        private final AtomicLong sent = new AtomicLong();
+        private final AtomicLong dropped = new AtomicLong();
+        private final AtomicLong coalesced = new AtomicLong();
+        private volatile long maxLagMs;
 
         public SseClient(OutputStream out) {
+            this(out, "");
+        }
+
+        /** label : origine affichée dans /api/health (adresse, chemin). */
+        public SseClient(OutputStream out, String label) {
+            this(out, label, SseFilter.ALL_EVENTS);
+        }
+
+        public SseClient(OutputStream out, String label, SseFilter filter) {
             this.out = out;
+            this.label = label;
+            this.filter = filter;
         }
 
-        public synchronized void send(byte[] data) throws IOException {
+        /** Écriture directe (événements initiaux, avant ou pendant l'abonnement). */
+        public void send(byte[] data) throws IOException {
             if (closed) throw new IOException("client closed");
-            out.write(data);
-            out.flush();
+            writeLock.lock();
+            try {
+                out.write(data);
+                out.flush();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        /** Autorise l'écriture de la file (addClient), à commencer par les événements rejoués. */
+        void start() {
+            lock.lock();
+            try {
+                started = true;
+                schedule();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /** Prévoit une tâche d'écriture s'il y a des événements et aucune tâche (sous lock). */
+        private void schedule() {
+            if (!started || scheduled || closed || queue.isEmpty()) return;
+            scheduled = true;
+            if (coalesceNanos > 0) {
+                delayed = TIMER.schedule(() -> WRITERS.execute(this::drain), coalesceNanos, TimeUnit.NANOSECONDS);
+            } else {
+                WRITERS.execute(this::drain);
+            }
+        }
+
+        /** Événements rejoués, mis en file avant le démarrage sans limite de capacité. */
+        void preload(List<Frame> frames) {
+            lock.lock();
+            try {
+                queue.addAll(frames);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /** Met l'événement en file ; false si le client est fermé (à retirer du bus). */
+        boolean offer(Frame frame) {
+            if (closed) return false;
+            lock.lock();
+            try {
+                if (queue.size() >= capacity) {
+                    if (disconnectWhenFull) {
+                        slowDisconnects.incrementAndGet();
+                        closeAsync();
+                        return false;
+                    }
+                    queue.pollFirst();
+                    dropped.incrementAndGet();
+                    droppedTotal.incrementAndGet();
+                }
+                if (frame.key() != null && queue.removeIf(f -> frame.key().equals(f.key()))) {
+                    coalesced.incrementAndGet();
+                    coalescedTotal.incrementAndGet();
+                }
+                queue.addLast(frame);
+                schedule();
+                // File à moitié pleine : inutile d'attendre la fin de la fenêtre de fusion
+                if (delayed != null && queue.size() >= capacity / 2 && delayed.cancel(false)) {
+                    delayed = null;
+                    WRITERS.execute(this::drain);
+                }
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /** Tâche du pool : écrit la file en un lot (un flush), puis rend le thread. */
+        private void drain() {
+            List<Frame> batch;
+            lock.lock();
+            try {
+                delayed = null;
+                if (closed) return;
+                batch = new ArrayList<>(queue);
+                queue.clear();
+            } finally {
+                lock.unlock();
+            }
+            if (!batch.isEmpty()) {
+                writeLock.lock();
+                try {
+                    out.write(concat(batch));
+                    out.flush();
+                } catch (IOException e) {
+                    close();
+                    return;
+                } finally {
+                    writeLock.unlock();
+                }
+                long lag = System.currentTimeMillis() - batch.get(0).createdAt();
+                if (lag > maxLagMs) maxLagMs = lag;
+                sent.addAndGet(batch.size());
+                writesSaved.addAndGet(batch.size() - 1);
+            }
+            lock.lock();
+            try {
+                // Événements arrivés pendant l'écriture : lot suivant, après une nouvelle fenêtre
+                scheduled = false;
+                schedule();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private static byte[] concat(List<Frame> batch) {
+            if (batch.size() == 1) return batch.get(0).bytes();
+            int len = 0;
+            for (Frame f : batch) len += f.bytes().length;
+            byte[] all = new byte[len];
+            int off = 0;
+            for (Frame f : batch) {
+                System.arraycopy(f.bytes(), 0, all, off, f.bytes().length);
+                off += f.bytes().length;
+            }
+            return all;
         }
 
         public void close() {
             closed = true;
+            lock.lock();
+            try {
+                queue.clear();
+                if (delayed != null) delayed.cancel(false);
+                delayed = null;
+            } finally {
+                lock.unlock();
+            }
+            if (!released.compareAndSet(false, true)) return;
+            INSTANCE.closed(this);
             try { out.close(); } catch (IOException ignored) {}
         }
 
+        /** Fermeture hors du thread publieur : close() peut bloquer sur une socket pleine. */
+        private void closeAsync() {
+            closed = true;
+            WRITERS.execute(this::close);
+        }
+
         public boolean isClosed() { return closed; }
+
+        /** Retard du plus ancien événement en file (ms). */
+        public long getLagMs() {
+            lock.lock();
+            try {
+                Frame oldest = queue.peekFirst();
+                return oldest == null ? 0 : System.currentTimeMillis() - oldest.createdAt();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public int getQueued() {
+            lock.lock();
+            try {
+                return queue.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public long getId()          { return id; }
+        public String getLabel()     { return label; }
+        public SseFilter getFilter() { return filter; }
+        public long getConnectedAt() { return connectedAt; }
+        public long getSent()        { return sent.get(); }
+        public long getDropped()     { return dropped.get(); }
+        public long getCoalesced()   { return coalesced.get(); }
+        public long getMaxLagMs()    { return maxLagMs; }
     }
 }
@@ -0,0 +1,94 @@
+package server.sse;
+
+import common.AppLogger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Abonnement d'un client SSE : les événements qu'il reçoit, décidé avant l'encodage.
+ *
+ * /api/events : sujets "video_*,stream_started" (nom exact ou préfixe terminé par *),
+ * tous par défaut ; jamais log_entry, même avec "*". /api/logs : log_entry seulement, avec
+ * un niveau minimal et une liste de composants (tous par défaut). Instances immuables.
+ */
+public final class SseFilter {
+
+    /** Tous les événements applicatifs, sans les logs (/api/events sans paramètre). */
+    public static final SseFilter ALL_EVENTS = new SseFilter(null, null, null);
+
+    private final List<String> topics;
+    private final AppLogger.Level minLevel;
+    private final List<String> components;
+
+    private SseFilter(List<String> topics, AppLogger.Level minLevel, List<String> components) {
+        this.topics = topics;
+        this.minLevel = minLevel;
+        this.components = components;
+    }
+
+    /** Filtre de /api/events ; topics null ou vide = tous. */
+    public static SseFilter forEvents(String topics) {
+        List<String> list = split(topics, false);
+        if (list == null) return ALL_EVENTS;
+        return new SseFilter(List.copyOf(list), null, null);
+    }
+
+    /** Filtre de /api/logs ; level (DEBUG..ERROR) et components (liste) optionnels. */
+    public static SseFilter forLogs(String level, String components) {
+        AppLogger.Level min = AppLogger.Level.DEBUG;
+        if (level != null && !level.isBlank()) {
+            try {
+                min = AppLogger.Level.valueOf(level.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Niveau inconnu: " + level);
+            }
+        }
+        List<String> list = split(components, true);
+        return new SseFilter(null, min, list == null ? null : List.copyOf(list));
+    }
+
+    public boolean isLogs() { return minLevel != null; }
+
+    /** Événement applicatif (jamais log_entry, voir accepts(LogEntry)). */
+    public boolean accepts(String eventType) {
+        if (isLogs()) return false;
+        if (topics == null) return true;
+        for (String t : topics) {
+            if (t.endsWith("*") ? eventType.startsWith(t.substring(0, t.length() - 1)) : eventType.equals(t)) return true;
+        }
+        return false;
+    }
+
+    public boolean accepts(AppLogger.LogEntry entry) {
+        if (!isLogs()) return false;
+        if (level(entry.level()) < minLevel.ordinal()) return false;
+        return components == null || components.contains(entry.component().toLowerCase(Locale.ROOT));
+    }
+
+    private static int level(String name) {
+        try {
+            return AppLogger.Level.valueOf(name).ordinal();
+        } catch (IllegalArgumentException e) {
+            return AppLogger.Level.ERROR.ordinal();
+        }
+    }
+
+    private static List<String> split(String csv, boolean lowerCase) {
+        if (csv == null || csv.isBlank()) return null;
+        List<String> out = new ArrayList<>();
+        for (String s : csv.split(",")) {
+            String t = s.trim();
+            if (t.isEmpty()) continue;
+            out.add(lowerCase ? t.toLowerCase(Locale.ROOT) : t);
+        }
+        return out.isEmpty() ? null : out;
+    }
+
+    /** Résumé affiché dans /api/health. */
+    @Override
+    public String toString() {
+        if (isLogs()) return "logs>=" + minLevel + (components == null ? "" : " " + String.join(",", components));
+        return topics == null ? "*" : String.join(",", topics);
+    }
+}
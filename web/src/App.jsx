@@ -693,8 +693,9 @@ export default function App() {
     if(!autoRefresh) return
     let es=null,fb=null
     try{
-      es=new EventSource(`${apiUrl}/api/events`)
-      ;['video_added','video_removed','stream_started','stream_stopped'].forEach(ev=>es.addEventListener(ev,()=>fetchAll()))
+      es=new EventSource(`${apiUrl}/api/events?topics=video_*,stream_*`)
+      ;['video_added','video_removed','stream_started','stream_stopped','resync'].forEach(ev=>es.addEventListener(ev,()=>fetchAll()))
+      es.onopen=()=>{ if(fb){ clearInterval(fb); fb=null } }
       es.onerror=()=>{ if(!fb) fb=setInterval(fetchAll,8000) }
     }catch{ fb=setInterval(fetchAll,8000) }
     return()=>{ es?.close(); clearInterval(fb) }